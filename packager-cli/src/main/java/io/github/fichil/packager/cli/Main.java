@@ -1,18 +1,31 @@
 package io.github.fichil.packager.cli;
 
 import io.github.fichil.packager.core.artifact.ArtifactCopier;
+import io.github.fichil.packager.core.artifact.ArtifactStore;
+import io.github.fichil.packager.core.cache.BuildStateCache;
+import io.github.fichil.packager.core.cache.LastSuccess;
+import io.github.fichil.packager.core.cache.RemoteBuildCache;
+import io.github.fichil.packager.core.cache.RemoteCache;
+import io.github.fichil.packager.core.cache.RemoteCacheServer;
 import io.github.fichil.packager.core.config.CompositeConfigLoader;
 import io.github.fichil.packager.core.config.CompositeConfigLoader.NamedJob;
 import io.github.fichil.packager.core.config.PackagerConfig;
+import io.github.fichil.packager.core.config.VarResolver;
 import io.github.fichil.packager.core.exec.ProcessExecutor;
 import io.github.fichil.packager.core.git.GitExecutor;
+import io.github.fichil.packager.core.job.DagScheduler;
 import io.github.fichil.packager.core.job.JobRunner;
+import io.github.fichil.packager.core.job.WorkingCopyLocks;
+import io.github.fichil.packager.core.maven.MavenBackend;
 import io.github.fichil.packager.core.maven.MavenExecutor;
+import io.github.fichil.packager.core.metrics.RunMetrics;
 import io.github.fichil.packager.core.artifact.ArtifactFinder;
 
 
 import java.io.File;
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
@@ -23,6 +36,21 @@ import java.util.Scanner;
  * - load jobs from package.yml includes (apps.yml/openapi.yml...)
  * - print merged jobs with index
  * - support multi-select: 1\3\5 (execute in input order)
+ * - -parallel N: max repos of one job built at the same time (overrides job.parallelism)
+ * - -sync-parallel N: max concurrent git clone/fetch (overrides git.parallelism)
+ * - --no-cache: always run maven, ignore cache.enabled
+ * - --parallel-jobs N: run up to N selected jobs at the same time; jobs sharing a working copy wait for each other
+ * - after the run: timing summary on the console, JSON report in logs/<runId>/metrics.json
+ * - --restore RUNID: put the outputs of an earlier run back from the artifact store (store.enabled), no build
+ * - cache.remote: build outputs shared with other machines (needs cache.enabled); --serve-cache PORT serves ${cache.dir}/remote-cache over HTTP
+ *   (loopback unless --serve-cache-bind ADDR; uploads need cache.remoteToken, read-only without one)
+ * - --affected: build only repos whose pull brought new commits, plus their dependents; the rest reuse the outputs
+ *   the build cache recorded for their HEAD, even if built with other mvn options (-DskipTests, -T ...), where
+ *   a plain cache hit needs the same command (needs cache.enabled)
+ * - --since-last-success: like --affected, compared with the commits of the job's last successful run
+ * - parsed package.yml/includes are cached in ~/.packager/config-cache until one of the files changes
+ * - --serve PORT: resident packager with a local HTTP API (see {@link PackagerServer});
+ *   --serve-runs N runs at the same time (default 1), --serve-queue N waiting runs (default 20)
  *
  * Notes:
  * - no lambda (project constraint)
@@ -42,8 +70,20 @@ public class Main {
         // flags: 如果命令行没传就交互问
         Boolean skipTests = hasFlag(args, "--skipTests") ? Boolean.TRUE : null;
         Boolean dryRun = hasFlag(args, "--dry-run") ? Boolean.TRUE : null;
+        boolean noCache = hasFlag(args, "--no-cache");
+        boolean affected = hasFlag(args, "--affected");
+        boolean sinceLastSuccess = hasFlag(args, "--since-last-success");
 
         String jobArg = trimQuotes(argValue(args, "-job")); // now supports: "1\3\5" or "openapi:xxx\apps:yyy"
+        Integer parallel = parsePositiveInt(argValue(args, "-parallel"), "-parallel");
+        Integer syncParallel = parsePositiveInt(argValue(args, "-sync-parallel"), "-sync-parallel");
+        Integer parallelJobs = parsePositiveInt(argValue(args, "--parallel-jobs"), "--parallel-jobs");
+        String restoreRunId = trimQuotes(argValue(args, "--restore"));
+        Integer serveCachePort = parsePositiveInt(argValue(args, "--serve-cache"), "--serve-cache");
+        String serveCacheBind = trimQuotes(argValue(args, "--serve-cache-bind"));
+        Integer servePort = parsePositiveInt(argValue(args, "--serve"), "--serve");
+        Integer serveRuns = parsePositiveInt(argValue(args, "--serve-runs"), "--serve-runs");
+        Integer serveQueue = parsePositiveInt(argValue(args, "--serve-queue"), "--serve-queue");
 
         // 1) config path
         if (isBlank(conf)) {
@@ -65,6 +105,15 @@ public class Main {
 
         System.out.println("[INFO] Using config: " + confFile.getAbsolutePath());
 
+        // 常驻服务：配置、缓存留在内存里，job 通过 HTTP 提交
+        if (servePort != null) {
+            PackagerServer server = new PackagerServer(confFile,
+                    serveRuns == null ? 1 : serveRuns.intValue(), serveQueue == null ? 20 : serveQueue.intValue());
+            server.start(servePort.intValue());
+            Thread.currentThread().join();
+            return;
+        }
+
         // 2) load jobs (from includes)
         List<NamedJob> allJobs = CompositeConfigLoader.loadFromPackageYml(confFile);
         if (allJobs == null || allJobs.isEmpty()) {
@@ -73,6 +122,15 @@ public class Main {
             return;
         }
 
+        // 远程构建缓存服务（给其他机器用），一直运行到进程结束
+        if (serveCachePort != null) {
+            File dir = new File(stateDir(allJobs.get(0).getMergedConfig()), "remote-cache");
+            new RemoteCacheServer(dir, remoteToken(allJobs.get(0).getMergedConfig()))
+                    .start(isBlank(serveCacheBind) ? null : serveCacheBind, serveCachePort.intValue());
+            Thread.currentThread().join();
+            return;
+        }
+
         // 3) list jobs only
         if (listJobs) {
             printJobsWithIndex(allJobs);
@@ -105,35 +163,276 @@ public class Main {
             dryRun = askYesNo(sc, "Dry run? (--dry-run) [Y/n]: ", true);
         }
 
-        // 6) execute in input order
+        // 6) execute in input order (--parallel-jobs N: up to N jobs at the same time)
+        // 同一秒启动的两个进程不能共用 runId（logs/、store 的 ref 会互相覆盖）：加上进程号
+        String runId = new java.text.SimpleDateFormat("yyyyMMdd-HHmmss").format(new java.util.Date())
+                + "-" + ProcessHandle.current().pid();
+        RunMetrics metrics = new RunMetrics();
+
+        RunContext ctx = new RunContext();
+        ctx.runId = runId;
+        ctx.metrics = metrics;
+        ctx.skipTests = skipTests.booleanValue();
+        ctx.dryRun = dryRun.booleanValue();
+        ctx.noCache = noCache;
+        ctx.affected = affected;
+        ctx.sinceLastSuccess = sinceLastSuccess;
+        ctx.parallel = parallel;
+        ctx.syncParallel = syncParallel;
+        ctx.restoreRunId = isBlank(restoreRunId) ? null : restoreRunId.trim();
+        try {
+            runJobs(selectedJobs, ctx, parallelJobs == null ? 1 : parallelJobs.intValue());
+        } finally {
+            report(selectedJobs, ctx);
+        }
+    }
+
+    /**
+     * Timing summary on the console, metrics.json next to the run's logs.
+     */
+    static void report(List<NamedJob> selectedJobs, RunContext ctx) {
+        ctx.metrics.printSummary(System.out);
+        if (!ctx.dryRun) {
+            File report = new File(new File(new File(stateDir(selectedJobs.get(0).getMergedConfig()), "logs"), ctx.runId), "metrics.json");
+            try {
+                ctx.metrics.writeJson(report);
+                System.out.println("[INFO] Report: " + report.getAbsolutePath());
+            } catch (Exception ex) {
+                System.out.println("[WARN] cannot write report " + report.getAbsolutePath() + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * build-state.json / last-success.json opened once and shared by every job using them
+     * (one run, or all runs of the server).
+     */
+    static final class StateFiles {
+        private final Map<String, BuildStateCache> caches = new HashMap<String, BuildStateCache>();
+        private final Map<String, LastSuccess> lastSuccess = new HashMap<String, LastSuccess>();
+
+        synchronized BuildStateCache cache(File file) {
+            String key = file.getAbsolutePath();
+            BuildStateCache c = caches.get(key);
+            if (c == null) {
+                c = BuildStateCache.open(file);
+                caches.put(key, c);
+            }
+            return c;
+        }
+
+        synchronized LastSuccess lastSuccess(File file) {
+            String key = file.getAbsolutePath();
+            LastSuccess s = lastSuccess.get(key);
+            if (s == null) {
+                s = LastSuccess.open(file);
+                lastSuccess.put(key, s);
+            }
+            return s;
+        }
+    }
+
+    /**
+     * Settings shared by all jobs of one run.
+     */
+    static final class RunContext {
+        String runId;
+        RunMetrics metrics;
+        boolean skipTests;
+        boolean dryRun;
+        boolean noCache;
+        boolean affected;
+        boolean sinceLastSuccess;
+        Integer parallel;
+        Integer syncParallel;
+        String restoreRunId;
+        boolean concurrent;
+        WorkingCopyLocks locks;
+        PrintStream console; // process output of this run; null = System.out
+        // 同一个 build-state.json 只打开一次，并发 job 共用一个实例（否则互相覆盖）
+        StateFiles files = new StateFiles();
+    }
+
+    static void runJobs(final List<NamedJob> selectedJobs, final RunContext ctx, int parallelJobs) throws Exception {
+        if (parallelJobs <= 1 || selectedJobs.size() <= 1) {
+            for (int i = 0; i < selectedJobs.size(); i++) {
+                runOne(selectedJobs.get(i), i, selectedJobs.size(), ctx);
+            }
+            return;
+        }
+
+        // --parallel-jobs: job 并发执行，共享的工作目录按路径加锁串行
+        ctx.concurrent = true;
+        if (ctx.locks == null) ctx.locks = new WorkingCopyLocks();
+
+        DagScheduler scheduler = new DagScheduler();
+        scheduler.definePool("jobs", parallelJobs);
         for (int i = 0; i < selectedJobs.size(); i++) {
-            NamedJob sel = selectedJobs.get(i);
+            final NamedJob sel = selectedJobs.get(i);
+            final int index = i;
+            scheduler.add("job#" + i, "jobs", new DagScheduler.Task() {
+                @Override
+                public void run() throws Exception {
+                    runOne(sel, index, selectedJobs.size(), ctx);
+                }
+            }, null);
+        }
+        scheduler.run();
+    }
 
-            System.out.println("==================================================");
-            System.out.println("[" + (i + 1) + "/" + selectedJobs.size() + "] RUN: " + sel.getDisplayName());
-            System.out.println("==================================================");
+    private static void runOne(NamedJob sel, int index, int total, RunContext ctx) throws Exception {
+        boolean dryRun = ctx.dryRun;
 
-            PackagerConfig cfg = sel.getMergedConfig();
-            PackagerConfig.JobConfig job = sel.getJob();
+        System.out.println("==================================================");
+        System.out.println("[" + (index + 1) + "/" + total + "] RUN: " + sel.getDisplayName());
+        System.out.println("==================================================");
 
-            String mvnExe = cfg.getMaven() != null ? cfg.getMaven().getExecutable() : null;
-            Map<String, String> vars = cfg.getVars();
+        PackagerConfig cfg = sel.getMergedConfig();
+        PackagerConfig.JobConfig job = sel.getJob();
 
-            ProcessExecutor pe = new ProcessExecutor();
-            pe.setDryRun(dryRun.booleanValue());
+        VarResolver vars = cfg.resolver();
 
-            JobRunner runner = new JobRunner(
-                    new GitExecutor(pe),
-                    new MavenExecutor(pe, mvnExe),
-                    new ArtifactFinder(),
-                    new ArtifactCopier(dryRun.booleanValue()),
-                    vars,
-                    dryRun.booleanValue()
-            );
+        ArtifactStore store = artifactStore(cfg, dryRun);
+        if (ctx.restoreRunId != null) {
+            restore(sel, store, ctx.restoreRunId);
+            return;
+        }
 
-            runner.runJob(job, skipTests.booleanValue());
-            System.out.println("DONE: " + sel.getDisplayName() + (dryRun.booleanValue() ? " (DRY-RUN)" : ""));
+        ProcessExecutor pe = new ProcessExecutor();
+        pe.setDryRun(dryRun);
+        pe.setMetrics(ctx.metrics, sel.getDisplayName());
+        if (ctx.concurrent) pe.setConsolePrefix(sel.getDisplayName());
+        if (ctx.console != null) pe.setConsole(ctx.console);
+        if (!dryRun) {
+            // 每个 job 一个日志目录，每个仓库一个 .log
+            File logDir = new File(new File(stateDir(cfg), "logs"), ctx.runId + File.separator + safeFileName(sel.getDisplayName()));
+            pe.setLogDir(logDir);
+            System.out.println("[INFO] Logs: " + logDir.getAbsolutePath());
+        }
+
+        PackagerConfig.GlobalMaven mvnCfg = cfg.getMaven();
+        MavenExecutor mvn = new MavenExecutor(pe, MavenBackend.of(mvnCfg));
+        if (mvnCfg != null) mvn.setThreads(mvnCfg.getThreads());
+
+        ArtifactCopier copier = new ArtifactCopier(dryRun);
+        copier.setMetrics(ctx.metrics, sel.getDisplayName());
+
+        GitExecutor git = new GitExecutor(pe);
+        File worktreeRoot = worktreeRoot(cfg);
+        if (worktreeRoot != null) git.setWorktreeRoot(worktreeRoot);
+        File mirrorRoot = mirrorRoot(cfg);
+        if (mirrorRoot != null) git.setMirrorRoot(mirrorRoot);
+
+        JobRunner runner = new JobRunner(
+                git,
+                mvn,
+                new ArtifactFinder(),
+                copier,
+                vars,
+                dryRun
+        );
+        runner.setJobName(sel.getDisplayName());
+        runner.setMetrics(ctx.metrics, sel.getDisplayName());
+        runner.setParallelism(ctx.parallel);
+        runner.setReactorBatch(mvnCfg != null && "true".equalsIgnoreCase(mvnCfg.getBatch()));
+        boolean buildCache = !ctx.noCache && !dryRun && cfg.getCache() != null
+                && "true".equalsIgnoreCase(cfg.getCache().getEnabled());
+        if (buildCache) {
+            runner.setBuildCache(ctx.files.cache(new File(stateDir(cfg), "build-state.json")));
+            String remote = vars.resolve(cfg.getCache().getRemote());
+            if (!isBlank(remote)) {
+                boolean push = !"false".equalsIgnoreCase(vars.resolve(cfg.getCache().getRemotePush()));
+                runner.setRemoteCache(new RemoteBuildCache(RemoteCache.of(remote, remoteToken(cfg)), push, localRepository(cfg),
+                        new File(stateDir(cfg), "tmp")));
+            }
+        } else if (!dryRun && cfg.getCache() != null && !isBlank(vars.resolve(cfg.getCache().getRemote()))) {
+            // 远程缓存的 key 建在本地构建缓存的指纹上：本地缓存关掉时它也不会用
+            System.out.println("[WARN] cache.remote not used: " + (ctx.noCache ? "--no-cache" : "cache.enabled is not \"true\"")
+                    + " (job=" + sel.getDisplayName() + ")");
+        }
+        runner.setAffectedOnly(ctx.affected, ctx.sinceLastSuccess);
+        if ((ctx.affected || ctx.sinceLastSuccess) && !dryRun && !buildCache) {
+            System.out.println("[WARN] --affected needs the build cache (cache.enabled, no --no-cache): building everything"
+                    + " (job=" + sel.getDisplayName() + ")");
         }
+        runner.setLastSuccess(ctx.files.lastSuccess(new File(stateDir(cfg), "last-success.json")));
+        runner.setSyncParallelism(ctx.syncParallel != null ? ctx.syncParallel
+                : parsePositiveInt(cfg.getGit() != null ? cfg.getGit().getParallelism() : null, "git.parallelism"));
+        if (ctx.locks != null) runner.setWorkingCopyLocks(ctx.locks, sel.getDisplayName());
+        if (store != null) {
+            store.setMetrics(ctx.metrics, sel.getDisplayName());
+            Integer keep = parsePositiveInt(vars.resolve(cfg.getStore().getKeep()), "store.keep");
+            runner.setArtifactStore(store, ctx.runId, keep == null ? 10 : keep.intValue());
+        }
+
+        RunMetrics.Timer timer = ctx.metrics.start(sel.getDisplayName(), null, RunMetrics.KIND_PHASE, "job");
+        try {
+            runner.runJob(job, ctx.skipTests);
+        } catch (Exception ex) {
+            timer.failed();
+            if (ctx.concurrent) System.out.println("FAILED: " + sel.getDisplayName() + ": " + ex.getMessage());
+            throw ex;
+        }
+        timer.ok();
+        System.out.println("DONE: " + sel.getDisplayName() + (dryRun ? " (DRY-RUN)" : ""));
+    }
+
+    private static void restore(NamedJob sel, ArtifactStore store, String runId) throws Exception {
+        if (store == null) {
+            throw new IllegalArgumentException("--restore needs store.enabled: \"true\" in package.yml");
+        }
+        PackagerConfig.ArtifactsConfig artifacts = sel.getJob().getArtifacts();
+        String outDir = artifacts == null ? null : sel.getMergedConfig().resolver().resolve(artifacts.getOutputDir());
+        // 没配 outputDir 时放回当次运行的目录
+        ArtifactStore.Ref ref = store.restore(sel.getDisplayName(), runId, isBlank(outDir) ? null : new File(outDir));
+        System.out.println("DONE: restored " + ref.getFiles().size() + " file(s) of run " + runId + ": " + sel.getDisplayName());
+    }
+
+    // store.enabled: "true" -> 内容寻址的产物库；否则 null（直接复制）
+    private static ArtifactStore artifactStore(PackagerConfig cfg, boolean dryRun) {
+        PackagerConfig.GlobalStore s = cfg.getStore();
+        if (s == null || !"true".equalsIgnoreCase(cfg.resolver().resolve(s.getEnabled()))) return null;
+        File dir = isBlank(s.getDir()) ? new File(stateDir(cfg), "store") : new File(cfg.resolver().resolve(s.getDir()));
+        return new ArtifactStore(dir, dryRun);
+    }
+
+    private static File localRepository(PackagerConfig cfg) {
+        String repo = cfg.getMaven() != null ? cfg.resolver().resolve(cfg.getMaven().getLocalRepository()) : null;
+        if (isBlank(repo)) return new File(new File(System.getProperty("user.home"), ".m2"), "repository");
+        return new File(repo);
+    }
+
+    static File stateDir(PackagerConfig cfg) {
+        String dir = cfg.getCache() != null ? cfg.getCache().getDir() : null;
+        if (isBlank(dir)) {
+            return new File(System.getProperty("user.home"), ".packager");
+        }
+        return new File(cfg.resolver().resolve(dir));
+    }
+
+    private static String remoteToken(PackagerConfig cfg) {
+        String token = cfg.getCache() != null ? cfg.resolver().resolve(cfg.getCache().getRemoteToken()) : null;
+        return isBlank(token) ? null : token.trim();
+    }
+
+    // git.worktree: "true" -> 共享对象库 + 分支工作树目录；否则 null（按 path 检出）
+    private static File worktreeRoot(PackagerConfig cfg) {
+        PackagerConfig.GlobalGit g = cfg.getGit();
+        if (g == null || !"true".equalsIgnoreCase(cfg.resolver().resolve(g.getWorktree()))) return null;
+        if (isBlank(g.getWorktreeDir())) return new File(stateDir(cfg), "worktrees");
+        return new File(cfg.resolver().resolve(g.getWorktreeDir()));
+    }
+
+    // git.mirror: "true" -> 本地镜像目录；否则 null（直接从 gitUrl clone）
+    private static File mirrorRoot(PackagerConfig cfg) {
+        PackagerConfig.GlobalGit g = cfg.getGit();
+        if (g == null || !"true".equalsIgnoreCase(cfg.resolver().resolve(g.getMirror()))) return null;
+        if (isBlank(g.getMirrorDir())) return new File(stateDir(cfg), "mirrors");
+        return new File(cfg.resolver().resolve(g.getMirrorDir()));
+    }
+
+    static String safeFileName(String s) {
+        return s.replaceAll("[^A-Za-z0-9._\\-]+", "_");
     }
 
     private static void printJobsWithIndex(List<NamedJob> allJobs) {
@@ -152,7 +451,7 @@ public class Main {
      *
      * Invalid items are ignored, but if all invalid -> return empty.
      */
-    private static List<NamedJob> resolveSelectedJobs(String input, List<NamedJob> allJobs) {
+    static List<NamedJob> resolveSelectedJobs(String input, List<NamedJob> allJobs) {
         if (isBlank(input)) return java.util.Collections.emptyList();
 
         String[] parts = input.split("\\\\");
@@ -254,6 +553,17 @@ public class Main {
         return false;
     }
 
+    private static Integer parsePositiveInt(String s, String key) {
+        if (isBlank(s)) return null;
+        try {
+            int n = Integer.parseInt(s.trim());
+            if (n >= 1) return Integer.valueOf(n);
+        } catch (NumberFormatException ignore) {
+            // fall through
+        }
+        throw new IllegalArgumentException(key + " must be a positive number: " + s);
+    }
+
     private static boolean isBlank(String s) {
         return s == null || s.trim().isEmpty();
     }
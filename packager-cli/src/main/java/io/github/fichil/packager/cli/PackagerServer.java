@@ -0,0 +1,637 @@
+package io.github.fichil.packager.cli;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import io.github.fichil.packager.core.config.CompositeConfigLoader;
+import io.github.fichil.packager.core.config.CompositeConfigLoader.NamedJob;
+import io.github.fichil.packager.core.config.ConfigCache;
+import io.github.fichil.packager.core.job.WorkingCopyLocks;
+import io.github.fichil.packager.core.metrics.RunMetrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * --serve PORT: one resident packager per build box, driven over a local HTTP/JSON API.
+ * - config stays loaded (reloaded when package.yml or an include changes); build-state/last-success files
+ *   and working copy locks are shared by all runs, so runs never checkout into the same directory at once
+ * - runs wait in a FIFO queue (at most --serve-queue, then 429) and --serve-runs of them run at the same time
+ * - a request equal to a still queued one (same jobs and options) gets that run back instead of a new one;
+ *   a running run has already synced git, so an equal request queues a new run that picks up later commits
+ * - console output of every run goes to logs/&lt;runId&gt;/console.log, readable while the run is going
+ *
+ * Endpoints (bound to 127.0.0.1, no auth):
+ * - GET    /jobs                  job names, same order as --list-jobs
+ * - POST   /runs                  {"jobs": ["apps:wms-Develop"], "skipTests": true, "dryRun": false, ...}
+ * - GET    /runs, /runs/{id}      state: queued | running | ok | failed | cancelled
+ * - GET    /runs/{id}/log?from=N  console output from byte N, streamed until the run ends
+ * - DELETE /runs/{id}             cancel a queued run
+ */
+class PackagerServer {
+
+    static final String QUEUED = "queued";
+    static final String RUNNING = "running";
+    static final String OK = "ok";
+    static final String FAILED = "failed";
+    static final String CANCELLED = "cancelled";
+
+    // 内存里最多留多少个已结束的 run（日志文件仍在磁盘上）
+    private static final int MAX_FINISHED = 200;
+
+    private static final ObjectMapper JSON = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * Body of POST /runs; options not given take the CLI defaults of a non-interactive run.
+     */
+    public static class RunRequest {
+        private List<String> jobs;
+        private Boolean skipTests;
+        private Boolean dryRun;
+        private Boolean noCache;
+        private Boolean affected;
+        private Boolean sinceLastSuccess;
+        private Integer parallel;
+        private Integer syncParallel;
+        private Integer parallelJobs;
+        private String restore;
+
+        /** numbers or names, like -job */
+        public List<String> getJobs() { return jobs; }
+        public void setJobs(List<String> jobs) { this.jobs = jobs; }
+
+        /** default true */
+        public Boolean getSkipTests() { return skipTests; }
+        public void setSkipTests(Boolean skipTests) { this.skipTests = skipTests; }
+
+        /** default false */
+        public Boolean getDryRun() { return dryRun; }
+        public void setDryRun(Boolean dryRun) { this.dryRun = dryRun; }
+
+        public Boolean getNoCache() { return noCache; }
+        public void setNoCache(Boolean noCache) { this.noCache = noCache; }
+
+        public Boolean getAffected() { return affected; }
+        public void setAffected(Boolean affected) { this.affected = affected; }
+
+        public Boolean getSinceLastSuccess() { return sinceLastSuccess; }
+        public void setSinceLastSuccess(Boolean sinceLastSuccess) { this.sinceLastSuccess = sinceLastSuccess; }
+
+        public Integer getParallel() { return parallel; }
+        public void setParallel(Integer parallel) { this.parallel = parallel; }
+
+        public Integer getSyncParallel() { return syncParallel; }
+        public void setSyncParallel(Integer syncParallel) { this.syncParallel = syncParallel; }
+
+        public Integer getParallelJobs() { return parallelJobs; }
+        public void setParallelJobs(Integer parallelJobs) { this.parallelJobs = parallelJobs; }
+
+        /** run id, like --restore */
+        public String getRestore() { return restore; }
+        public void setRestore(String restore) { this.restore = restore; }
+    }
+
+    private final File confFile;
+    private final int maxRuns;
+    private final int maxQueued;
+
+    private final ConfigCache configCache = new ConfigCache(ConfigCache.defaultDir());
+    private List<NamedJob> jobs;
+    private List<ConfigCache.Source> sources;
+
+    private final Main.StateFiles files = new Main.StateFiles();
+    private final WorkingCopyLocks locks = new WorkingCopyLocks();
+
+    private final Map<String, Run> runs = new LinkedHashMap<String, Run>();
+    private final AtomicInteger seq = new AtomicInteger();
+    private ExecutorService workers;
+    private HttpServer server;
+    private PrintStream console; // System.out before routing
+
+    PackagerServer(File confFile, int maxRuns, int maxQueued) {
+        this.confFile = confFile;
+        this.maxRuns = maxRuns;
+        this.maxQueued = maxQueued;
+    }
+
+    void start(int port) throws Exception {
+        jobs();
+
+        // System.out 按线程分流：run 的线程（及其创建的线程）写进该 run 的日志
+        console = System.out;
+        System.setOut(new PrintStream(new Router(console), true));
+
+        workers = new ThreadPoolExecutor(maxRuns, maxRuns, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory("run"));
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange ex) {
+                try {
+                    serve(ex);
+                } catch (IllegalArgumentException bad) {
+                    reply(ex, 400, error(bad.getMessage()));
+                } catch (Exception e) {
+                    System.out.println("[WARN] server: " + ex.getRequestMethod() + " " + ex.getRequestURI() + ": " + e);
+                    reply(ex, 500, error(String.valueOf(e.getMessage())));
+                } finally {
+                    ex.close();
+                }
+            }
+        });
+        // 日志流会一直占着一个线程
+        server.setExecutor(Executors.newCachedThreadPool(threadFactory("http")));
+        server.start();
+        System.out.println("[INFO] packager server on 127.0.0.1:" + server.getAddress().getPort()
+                + ", runs=" + maxRuns + ", queue=" + maxQueued + ", config=" + confFile.getAbsolutePath());
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Resident jobs; reloaded when one of the config files changed since the last load.
+     */
+    private synchronized List<NamedJob> jobs() throws Exception {
+        if (jobs != null && ConfigCache.unchanged(sources)) return jobs;
+
+        List<ConfigCache.Source> src = new ArrayList<ConfigCache.Source>();
+        List<NamedJob> loaded = CompositeConfigLoader.loadFromPackageYml(confFile, configCache, src);
+        if (jobs != null) System.out.println("[INFO] config reloaded: " + loaded.size() + " job(s)");
+        jobs = loaded;
+        sources = src;
+        return jobs;
+    }
+
+    private void serve(HttpExchange ex) throws Exception {
+        String method = ex.getRequestMethod();
+        if (!"POST".equals(method)) {
+            // 同 RemoteCacheServer：没读完的请求体会让 keep-alive 连接失效
+            ex.getRequestBody().close();
+        }
+        String[] path = ex.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/");
+
+        if (path.length == 1 && "jobs".equals(path[0]) && "GET".equals(method)) {
+            List<NamedJob> all = jobs();
+            List<String> names = new ArrayList<String>(all.size());
+            for (int i = 0; i < all.size(); i++) {
+                names.add(all.get(i).getDisplayName());
+            }
+            reply(ex, 200, names);
+            return;
+        }
+        if (path.length == 0 || !"runs".equals(path[0]) || path.length > 3) {
+            reply(ex, 404, error("not found"));
+            return;
+        }
+
+        if (path.length == 1) {
+            if ("POST".equals(method)) {
+                RunRequest req;
+                try {
+                    req = JSON.readValue(ex.getRequestBody(), RunRequest.class);
+                } catch (com.fasterxml.jackson.core.JsonProcessingException bad) {
+                    throw new IllegalArgumentException("invalid request: " + bad.getOriginalMessage());
+                }
+                submit(ex, req);
+            } else if ("GET".equals(method)) {
+                List<Map<String, Object>> out = new ArrayList<Map<String, Object>>();
+                synchronized (this) {
+                    for (Run r : runs.values()) {
+                        out.add(status(r, false));
+                    }
+                }
+                reply(ex, 200, out);
+            } else {
+                reply(ex, 405, error("method not allowed"));
+            }
+            return;
+        }
+
+        Run run;
+        synchronized (this) {
+            run = runs.get(path[1]);
+        }
+        if (run == null) {
+            reply(ex, 404, error("unknown run: " + path[1]));
+            return;
+        }
+        if (path.length == 3 && "log".equals(path[2]) && "GET".equals(method)) {
+            streamLog(ex, run, parseFrom(ex.getRequestURI().getQuery()));
+        } else if (path.length == 2 && "GET".equals(method)) {
+            Map<String, Object> st;
+            synchronized (this) {
+                st = status(run, false);
+            }
+            reply(ex, 200, st);
+        } else if (path.length == 2 && "DELETE".equals(method)) {
+            cancel(ex, run);
+        } else {
+            reply(ex, 405, error("method not allowed"));
+        }
+    }
+
+    private void submit(HttpExchange ex, RunRequest req) throws Exception {
+        if (req == null || req.getJobs() == null || req.getJobs().isEmpty()) {
+            throw new IllegalArgumentException("jobs is required");
+        }
+        List<NamedJob> all = jobs();
+        List<NamedJob> selected = new ArrayList<NamedJob>();
+        for (int i = 0; i < req.getJobs().size(); i++) {
+            List<NamedJob> found = Main.resolveSelectedJobs(req.getJobs().get(i), all);
+            if (found.isEmpty()) {
+                throw new IllegalArgumentException("Unknown job: " + req.getJobs().get(i));
+            }
+            selected.addAll(found);
+        }
+        checkPositive(req.getParallel(), "parallel");
+        checkPositive(req.getSyncParallel(), "syncParallel");
+        checkPositive(req.getParallelJobs(), "parallelJobs");
+
+        String key = key(selected, req);
+        synchronized (this) {
+            for (Run r : runs.values()) {
+                // 只合并到还在排队的：已开始的 run 已经 git sync 过，新请求要看到之后的提交
+                if (key.equals(r.key) && QUEUED.equals(r.state)) {
+                    reply(ex, 200, status(r, true));
+                    return;
+                }
+            }
+            int queued = 0;
+            for (Run r : runs.values()) {
+                if (QUEUED.equals(r.state)) queued++;
+            }
+            if (queued >= maxQueued) {
+                reply(ex, 429, error("queue full (" + queued + " waiting)"));
+                return;
+            }
+
+            String id = new java.text.SimpleDateFormat("yyyyMMdd-HHmmss").format(new java.util.Date()) + "-" + seq.incrementAndGet();
+            File logFile = new File(new File(new File(Main.stateDir(selected.get(0).getMergedConfig()), "logs"), id), "console.log");
+            final Run run = new Run(id, key, selected, req, new RunLog(logFile, console));
+            runs.put(id, run);
+            run.future = workers.submit(new Runnable() {
+                @Override
+                public void run() {
+                    execute(run);
+                }
+            });
+            System.out.println("[INFO] queued run " + id + ": " + names(selected));
+            reply(ex, 202, status(run, false));
+        }
+    }
+
+    private void execute(Run run) {
+        synchronized (this) {
+            if (!QUEUED.equals(run.state)) return;
+            run.state = RUNNING;
+            run.startedAt = System.currentTimeMillis();
+        }
+        Router.CURRENT.set(run.log);
+
+        RunRequest req = run.request;
+        Main.RunContext ctx = new Main.RunContext();
+        ctx.runId = run.id;
+        ctx.metrics = new RunMetrics();
+        ctx.skipTests = !Boolean.FALSE.equals(req.getSkipTests());
+        ctx.dryRun = Boolean.TRUE.equals(req.getDryRun());
+        ctx.noCache = Boolean.TRUE.equals(req.getNoCache());
+        ctx.affected = Boolean.TRUE.equals(req.getAffected());
+        ctx.sinceLastSuccess = Boolean.TRUE.equals(req.getSinceLastSuccess());
+        ctx.parallel = req.getParallel();
+        ctx.syncParallel = req.getSyncParallel();
+        ctx.restoreRunId = req.getRestore() == null || req.getRestore().trim().isEmpty() ? null : req.getRestore().trim();
+        ctx.files = files;
+        ctx.locks = locks;
+        ctx.console = run.log.stream();
+
+        String error = null;
+        try {
+            System.out.println("[INFO] run " + run.id + ": " + names(run.jobs));
+            Main.runJobs(run.jobs, ctx, req.getParallelJobs() == null ? 1 : req.getParallelJobs().intValue());
+        } catch (Throwable t) {
+            error = t.getMessage() == null ? t.toString() : t.getMessage();
+            t.printStackTrace(System.out);
+        } finally {
+            try {
+                Main.report(run.jobs, ctx);
+            } catch (Throwable t) {
+                System.out.println("[WARN] report of run " + run.id + " failed: " + t);
+            }
+            synchronized (this) {
+                run.state = error == null ? OK : FAILED;
+                run.error = error;
+                run.finishedAt = System.currentTimeMillis();
+                prune();
+            }
+            run.log.close();
+            Router.CURRENT.remove();
+            System.out.println("[INFO] run " + run.id + " " + (error == null ? OK : FAILED + ": " + error));
+        }
+    }
+
+    private void cancel(HttpExchange ex, Run run) throws IOException {
+        synchronized (this) {
+            if (!QUEUED.equals(run.state)) {
+                reply(ex, 409, error("run is " + run.state + ", only queued runs can be cancelled"));
+                return;
+            }
+            run.future.cancel(false);
+            run.state = CANCELLED;
+            run.finishedAt = System.currentTimeMillis();
+            prune();
+            reply(ex, 200, status(run, false));
+        }
+        run.log.close();
+    }
+
+    private void streamLog(HttpExchange ex, Run run, long from) throws Exception {
+        ex.getResponseHeaders().set("Content-Type", "text/plain; charset=" + Charset.defaultCharset().name());
+        ex.sendResponseHeaders(200, 0);
+        byte[] buf = new byte[8192];
+        try (OutputStream out = ex.getResponseBody();
+             RandomAccessFile in = new RandomAccessFile(run.log.file, "r")) {
+            long pos = from;
+            while (true) {
+                long len = run.log.await(pos, 1000L);
+                if (len > pos) {
+                    in.seek(pos);
+                    while (pos < len) {
+                        int n = in.read(buf, 0, (int) Math.min(buf.length, len - pos));
+                        if (n < 0) break;
+                        out.write(buf, 0, n);
+                        pos += n;
+                    }
+                    out.flush();
+                } else if (run.log.isClosed()) {
+                    return;
+                }
+            }
+        } catch (IOException gone) {
+            // 客户端断开
+        }
+    }
+
+    // 结束的 run 只留最近 MAX_FINISHED 个
+    private void prune() {
+        int finished = 0;
+        for (Run r : runs.values()) {
+            if (r.finishedAt > 0) finished++;
+        }
+        Iterator<Run> it = runs.values().iterator();
+        while (finished > MAX_FINISHED && it.hasNext()) {
+            if (it.next().finishedAt > 0) {
+                it.remove();
+                finished--;
+            }
+        }
+    }
+
+    // 调用方持有 this 锁
+    private Map<String, Object> status(Run r, boolean deduplicated) {
+        Map<String, Object> m = new LinkedHashMap<String, Object>();
+        m.put("id", r.id);
+        m.put("jobs", names(r.jobs));
+        m.put("state", r.state);
+        if (QUEUED.equals(r.state)) {
+            int pos = 0;
+            for (Run o : runs.values()) {
+                if (o == r) break;
+                if (QUEUED.equals(o.state)) pos++;
+            }
+            m.put("position", Integer.valueOf(pos));
+        }
+        if (deduplicated) m.put("deduplicated", Boolean.TRUE);
+        m.put("submittedAt", Long.valueOf(r.submittedAt));
+        if (r.startedAt > 0) m.put("startedAt", Long.valueOf(r.startedAt));
+        if (r.finishedAt > 0) m.put("finishedAt", Long.valueOf(r.finishedAt));
+        if (r.error != null) m.put("error", r.error);
+        m.put("log", r.log.file.getAbsolutePath());
+        return m;
+    }
+
+    private static String key(List<NamedJob> selected, RunRequest req) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < selected.size(); i++) {
+            sb.append(selected.get(i).getDisplayName()).append('\\');
+        }
+        sb.append("|skipTests=").append(!Boolean.FALSE.equals(req.getSkipTests()));
+        sb.append("|dryRun=").append(Boolean.TRUE.equals(req.getDryRun()));
+        sb.append("|noCache=").append(Boolean.TRUE.equals(req.getNoCache()));
+        sb.append("|affected=").append(Boolean.TRUE.equals(req.getAffected()));
+        sb.append("|sinceLastSuccess=").append(Boolean.TRUE.equals(req.getSinceLastSuccess()));
+        sb.append("|parallel=").append(req.getParallel());
+        sb.append("|syncParallel=").append(req.getSyncParallel());
+        sb.append("|parallelJobs=").append(req.getParallelJobs());
+        sb.append("|restore=").append(req.getRestore());
+        return sb.toString();
+    }
+
+    private static List<String> names(List<NamedJob> jobs) {
+        List<String> out = new ArrayList<String>(jobs.size());
+        for (int i = 0; i < jobs.size(); i++) {
+            out.add(jobs.get(i).getDisplayName());
+        }
+        return out;
+    }
+
+    private static void checkPositive(Integer n, String key) {
+        if (n != null && n.intValue() < 1) {
+            throw new IllegalArgumentException(key + " must be a positive number: " + n);
+        }
+    }
+
+    private static long parseFrom(String query) {
+        if (query == null) return 0L;
+        String[] parts = query.split("&");
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i].startsWith("from=")) {
+                try {
+                    return Math.max(0L, Long.parseLong(parts[i].substring("from=".length())));
+                } catch (NumberFormatException bad) {
+                    throw new IllegalArgumentException("from must be a number: " + parts[i]);
+                }
+            }
+        }
+        return 0L;
+    }
+
+    private static Map<String, Object> error(String message) {
+        Map<String, Object> m = new LinkedHashMap<String, Object>();
+        m.put("error", message);
+        return m;
+    }
+
+    private static void reply(HttpExchange ex, int code, Object body) {
+        try {
+            byte[] b = JSON.writerWithDefaultPrettyPrinter().writeValueAsBytes(body);
+            ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            ex.sendResponseHeaders(code, b.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(b);
+            }
+        } catch (IOException ignore) {
+            // 响应头已发出 / 客户端已断开
+        }
+    }
+
+    private static ThreadFactory threadFactory(final String pool) {
+        final AtomicInteger n = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "packager-server-" + pool + "-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    private static final class Run {
+        final String id;
+        final String key;
+        final List<NamedJob> jobs;
+        final RunRequest request;
+        final RunLog log;
+        final long submittedAt = System.currentTimeMillis();
+        Future<?> future;
+        String state = QUEUED;
+        long startedAt;
+        long finishedAt;
+        String error;
+
+        Run(String id, String key, List<NamedJob> jobs, RunRequest request, RunLog log) {
+            this.id = id;
+            this.key = key;
+            this.jobs = jobs;
+            this.request = request;
+            this.log = log;
+        }
+    }
+
+    /**
+     * console.log of one run, also echoed to the server console; readers wait for more with {@link #await}.
+     */
+    static final class RunLog extends OutputStream {
+        final File file;
+        private final PrintStream console;
+        private final OutputStream out;
+        private final PrintStream stream;
+        private long length;
+        private boolean closed;
+
+        RunLog(File file, PrintStream console) throws IOException {
+            this.file = file;
+            this.console = console;
+            Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+            this.out = new FileOutputStream(file, true);
+            this.length = file.length();
+            this.stream = new PrintStream(this, true);
+        }
+
+        PrintStream stream() {
+            return stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            console.write(b, off, len);
+            if (closed) return; // 结束后还在跑的线程（如 pump 收尾）只写控制台
+            out.write(b, off, len);
+            length += len;
+            notifyAll();
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * Wait up to {@code millis} for output beyond {@code from}.
+         *
+         * @return bytes written so far
+         */
+        synchronized long await(long from, long millis) throws InterruptedException {
+            if (length <= from && !closed) wait(millis);
+            return length;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) return;
+            closed = true;
+            try {
+                out.close();
+            } catch (IOException ignore) {
+                // 已经写不进去了
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * System.out of the server: whatever a run's threads print goes to that run's {@link RunLog}, the rest to the console.
+     * Threads started by a run inherit its log; the shared process output pumps get the run's stream explicitly
+     * ({@code ProcessExecutor.setConsole}).
+     */
+    static final class Router extends OutputStream {
+        static final InheritableThreadLocal<RunLog> CURRENT = new InheritableThreadLocal<RunLog>();
+
+        private final PrintStream console;
+
+        Router(PrintStream console) {
+            this.console = console;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            RunLog log = CURRENT.get();
+            if (log != null) {
+                log.write(b, off, len);
+            } else {
+                console.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() {
+            console.flush();
+        }
+    }
+}
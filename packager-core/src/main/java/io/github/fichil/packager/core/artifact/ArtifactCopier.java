@@ -1,13 +1,82 @@
 package io.github.fichil.packager.core.artifact;
 
+import io.github.fichil.packager.core.exec.ProcessExecutor;
+import io.github.fichil.packager.core.metrics.RunMetrics;
+
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Copies artifacts into the output dirs.
+ * - unchanged targets are skipped: size + mtime recorded in the dir's manifest, else content hash
+ * - changed files are copied concurrently ({@link #setParallelism}) with FileChannel.transferTo
+ * - every target is written to a temp file in the same dir and renamed, readers never see half a war
+ * - mode hardlink / reflink places the target without writing the bytes again; falls back to copy when the
+ *   filesystem can't (other device, no reflink support, Windows without cp)
+ */
 public class ArtifactCopier {
 
+    private static final int HASH_BUFFER = 1024 * 1024;
+
+    public static final String MODE_COPY = "copy";
+    public static final String MODE_HARDLINK = "hardlink";
+    public static final String MODE_REFLINK = "reflink";
+
+    /**
+     * One planned copy; {@link #getBytes()} / {@link #isSkipped()} are set once it ran.
+     */
+    public static final class Copy {
+        private final String repo;
+        private final File from;
+        private final File to;
+        private volatile long bytes;
+        private volatile boolean skipped;
+
+        public Copy(String repo, File from, File to) {
+            this.repo = repo;
+            this.from = from;
+            this.to = to;
+        }
+
+        public String getRepo() { return repo; }
+
+        public File getFrom() { return from; }
+
+        public File getTo() { return to; }
+
+        /** bytes written, 0 when skipped */
+        public long getBytes() { return bytes; }
+
+        public boolean isSkipped() { return skipped; }
+
+        void setBytes(long bytes) { this.bytes = bytes; }
+
+        void setSkipped(boolean skipped) { this.skipped = skipped; }
+    }
+
     private final boolean dryRun;
+    private int parallelism = 4;
+    private String mode = MODE_COPY;
+    // 已知不支持 link/reflink 的目标目录，之后直接复制
+    private final java.util.Set<String> linkUnsupported = java.util.Collections.newSetFromMap(
+            new java.util.concurrent.ConcurrentHashMap<String, Boolean>());
+    private RunMetrics metrics;
+    private String metricsJob;
 
     public ArtifactCopier() {
         this(false);
@@ -18,19 +87,310 @@ public class ArtifactCopier {
     }
 
     public void copy(File from, File to) throws Exception {
+        copyAll(Collections.singletonList(new Copy(ProcessExecutor.threadLabel(), from, to)));
+    }
+
+    /**
+     * Run all copies (up to {@code parallelism} at once). Every copy is attempted; the first failure is rethrown
+     * after the others finished.
+     */
+    public void copyAll(List<Copy> copies) throws Exception {
         if (dryRun) {
-            // 只打印，不落盘
-            System.out.println("[DRY-RUN] skip copy: " + from.getAbsolutePath() + " -> " + to.getAbsolutePath());
+            for (int i = 0; i < copies.size(); i++) {
+                // 只打印，不落盘
+                System.out.println("[DRY-RUN] skip copy: " + copies.get(i).getFrom().getAbsolutePath()
+                        + " -> " + copies.get(i).getTo().getAbsolutePath());
+            }
             return;
         }
 
+        // 同一个目标写两次：以后面的为准（与顺序复制的结果一致）
+        Map<String, Copy> byTarget = new LinkedHashMap<String, Copy>();
+        for (int i = 0; i < copies.size(); i++) {
+            Copy c = copies.get(i);
+            String key = c.getTo().getAbsolutePath();
+            if (byTarget.containsKey(key)) {
+                System.out.println("[WARN] artifact target written twice, keeping " + c.getFrom().getAbsolutePath() + ": " + key);
+                byTarget.remove(key);
+            }
+            byTarget.put(key, c);
+        }
+        final List<Copy> todo = new ArrayList<Copy>(byTarget.values());
+
+        final Map<String, CopyManifest> manifests = new LinkedHashMap<String, CopyManifest>();
+        for (int i = 0; i < todo.size(); i++) {
+            File dir = todo.get(i).getTo().getAbsoluteFile().getParentFile();
+            if (!manifests.containsKey(dir.getPath())) manifests.put(dir.getPath(), CopyManifest.open(dir));
+        }
+
+        Exception failure = null;
+        if (todo.size() == 1 || parallelism <= 1) {
+            for (int i = 0; i < todo.size(); i++) {
+                try {
+                    copyOne(todo.get(i), manifests);
+                } catch (Exception ex) {
+                    if (failure == null) failure = ex;
+                }
+            }
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, todo.size()), threadFactory());
+            try {
+                List<Future<?>> futures = new ArrayList<Future<?>>();
+                for (int i = 0; i < todo.size(); i++) {
+                    final Copy c = todo.get(i);
+                    futures.add(pool.submit(new java.util.concurrent.Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            copyOne(c, manifests);
+                            return null;
+                        }
+                    }));
+                }
+                for (int i = 0; i < futures.size(); i++) {
+                    try {
+                        futures.get(i).get();
+                    } catch (java.util.concurrent.ExecutionException ex) {
+                        Throwable cause = ex.getCause();
+                        if (failure == null) failure = (cause instanceof Exception) ? (Exception) cause : ex;
+                    }
+                }
+            } catch (InterruptedException ex) {
+                pool.shutdownNow();
+                throw ex;
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        for (CopyManifest m : manifests.values()) {
+            m.save();
+        }
+        if (failure != null) throw failure;
+    }
+
+    private void copyOne(Copy c, Map<String, CopyManifest> manifests) throws Exception {
+        File from = c.getFrom();
+        File to = c.getTo();
         if (!from.exists() || !from.isFile()) {
             throw new IllegalArgumentException("Artifact not found: " + from.getAbsolutePath());
         }
-        Path targetDir = to.getParentFile().toPath();
-        Files.createDirectories(targetDir);
 
-        Files.copy(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        RunMetrics.Timer timer = (metrics == null ? null
+                : metrics.start(metricsJob, c.getRepo(), RunMetrics.KIND_COPY, "copy")
+                .detail(from.getAbsolutePath() + " -> " + to.getAbsolutePath()));
+        try {
+            CopyManifest manifest = manifests.get(to.getAbsoluteFile().getParentFile().getPath());
+            CopyManifest.Entry prev = manifest.get(to.getName());
+
+            String hash;
+            if (!MODE_COPY.equals(mode)) {
+                // link 模式：放置是 O(1) 的，不做内容比较；已是同一个文件才跳过
+                hash = null;
+                if (to.exists() && Files.isSameFile(from.toPath(), to.toPath())) {
+                    c.skipped = true;
+                    System.out.println("[SKIP] " + mode + ", unchanged: " + to.getAbsolutePath());
+                } else if (!link(from, to)) {
+                    hash = transfer(from, to);
+                    c.bytes = to.length();
+                }
+            } else {
+                hash = unchangedHash(from, to, prev);
+                if (hash != null) {
+                    c.skipped = true;
+                    System.out.println("[SKIP] copy, unchanged: " + to.getAbsolutePath());
+                } else {
+                    hash = transfer(from, to);
+                    c.bytes = to.length();
+                }
+            }
+
+            CopyManifest.Entry e = new CopyManifest.Entry();
+            e.setSize(to.length());
+            e.setModified(to.lastModified());
+            e.setSha256(hash);
+            e.setSource(from.getAbsolutePath());
+            e.setSourceSize(from.length());
+            e.setSourceModified(from.lastModified());
+            manifest.put(to.getName(), e);
+        } catch (Exception ex) {
+            if (timer != null) timer.failed();
+            throw ex;
+        }
+        if (timer != null) {
+            timer.bytes(c.getBytes());
+            if (c.isSkipped()) {
+                timer.skipped();
+            } else {
+                timer.ok();
+            }
+        }
+    }
+
+    /**
+     * @return content hash when {@code to} already holds the content of {@code from}, else null
+     */
+    private static String unchangedHash(File from, File to, CopyManifest.Entry prev) throws Exception {
+        if (!to.isFile() || to.length() != from.length()) return null;
+
+        // 目标与 manifest 记录一致：不用回读（可能在网络盘上）
+        boolean targetKnown = prev != null && prev.getSha256() != null
+                && prev.getSize() == to.length() && prev.getModified() == to.lastModified();
+        if (targetKnown && from.getAbsolutePath().equals(prev.getSource())
+                && prev.getSourceSize() == from.length() && prev.getSourceModified() == from.lastModified()) {
+            return prev.getSha256();
+        }
+
+        String source = sha256(from);
+        String target = targetKnown ? prev.getSha256() : sha256(to);
+        return source.equals(target) ? source : null;
     }
 
+    /**
+     * Place {@code to} as hard link / reflink of {@code from} (temp name + rename).
+     *
+     * @return false when the filesystem can't, the caller copies instead
+     */
+    private boolean link(File from, File to) throws Exception {
+        File dir = to.getAbsoluteFile().getParentFile();
+        Files.createDirectories(dir.toPath());
+        if (linkUnsupported.contains(dir.getPath())) return false;
+
+        File tmp = tempFile(to);
+        try {
+            boolean ok = MODE_HARDLINK.equals(mode) ? hardlink(from, tmp) : reflink(from, tmp);
+            if (!ok) {
+                linkUnsupported.add(dir.getPath());
+                System.out.println("[WARN] " + mode + " not possible into " + dir.getAbsolutePath() + ", copying instead");
+                return false;
+            }
+            moveIntoPlace(tmp, to);
+            return true;
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    private static boolean hardlink(File from, File tmp) {
+        try {
+            Files.createLink(tmp.toPath(), from.toPath());
+            return true;
+        } catch (java.io.IOException | UnsupportedOperationException ex) {
+            // 跨盘（EXDEV）、文件系统不支持
+            return false;
+        }
+    }
+
+    // JDK 没有 reflink API：用 cp --reflink=always（btrfs/xfs/APFS 的 cp 支持），失败就复制
+    private static boolean reflink(File from, File tmp) throws InterruptedException {
+        ProcessBuilder pb = new ProcessBuilder("cp", "--reflink=always", from.getAbsolutePath(), tmp.getAbsolutePath());
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        try {
+            return pb.start().waitFor() == 0;
+        } catch (java.io.IOException ex) {
+            return false;
+        }
+    }
+
+    private static File tempFile(File to) {
+        return new File(to.getAbsoluteFile().getParentFile(), "." + to.getName() + ".tmp-" + Long.toHexString(System.nanoTime()));
+    }
+
+    private static void moveIntoPlace(File tmp, File to) throws Exception {
+        try {
+            Files.move(tmp.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (java.nio.file.AtomicMoveNotSupportedException ex) {
+            Files.move(tmp.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Copy into a temp file next to {@code to}, then rename over it.
+     *
+     * @return content hash of the copied bytes
+     */
+    private static String transfer(File from, File to) throws Exception {
+        File dir = to.getAbsoluteFile().getParentFile();
+        Files.createDirectories(dir.toPath());
+
+        File tmp = tempFile(to);
+        try {
+            try (FileChannel in = FileChannel.open(from.toPath(), StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                long size = in.size();
+                long pos = 0;
+                while (pos < size) {
+                    pos += in.transferTo(pos, size - pos, out);
+                }
+            }
+            moveIntoPlace(tmp, to);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+        // hash 从本地源文件算，不回读目标
+        return sha256(from);
+    }
+
+    static String sha256(File f) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        ByteBuffer buf = ByteBuffer.allocate(HASH_BUFFER);
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            while (ch.read(buf) >= 0) {
+                buf.flip();
+                md.update(buf);
+                buf.clear();
+            }
+        }
+        return hex(md.digest());
+    }
+
+    static String hex(byte[] d) {
+        StringBuilder sb = new StringBuilder(d.length * 2);
+        for (int i = 0; i < d.length; i++) {
+            sb.append(String.format("%02x", d[i] & 0xff));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Max files copied at the same time (default 4).
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("copy parallelism must be >= 1: " + parallelism);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * copy (default) | hardlink | reflink.
+     * Hard links share the file with target/: only safe when maven replaces outputs instead of rewriting them
+     * in place (clean, or the default jar/war plugins).
+     */
+    public void setMode(String mode) {
+        String m = (mode == null || mode.trim().isEmpty()) ? MODE_COPY : mode.trim().toLowerCase();
+        if (!MODE_COPY.equals(m) && !MODE_HARDLINK.equals(m) && !MODE_REFLINK.equals(m)) {
+            throw new IllegalArgumentException("Unknown artifacts.mode: " + mode + " (expected copy, hardlink or reflink)");
+        }
+        this.mode = m;
+    }
+
+    /**
+     * Record every copy (wall time + bytes) under the given job name.
+     */
+    public void setMetrics(RunMetrics metrics, String job) {
+        this.metrics = metrics;
+        this.metricsJob = job;
+    }
+
+    private static ThreadFactory threadFactory() {
+        return new ThreadFactory() {
+            private final AtomicInteger seq = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "packager-copy-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
 }
@@ -1,43 +1,200 @@
 package io.github.fichil.packager.core.artifact;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Finds build outputs (war/jar/ear/zip/tar.gz directly inside a target/ dir) under a repo.
+ * - one Files.walkFileTree per repo: .git, node_modules ... and the src/ of maven modules (next to a pom.xml)
+ *   are pruned, target/ is listed but never descended
+ * - results are cached per repo until {@link #invalidate} (called after every maven step)
+ * - glob patterns relative to the repo: {@code **}{@code /target/*-api.war}
+ */
 public class ArtifactFinder {
 
-    public static List<File> findWars(File repoDir) {
-        List<File> result = new ArrayList<>();
-        scan(repoDir, result);
+    private static final String[] TYPES = {".war", ".jar", ".ear", ".zip", ".tar.gz", ".tgz"};
+    private static final String[] PRUNED = {".git", ".svn", ".idea", "node_modules"};
+    // maven 附属产物，不是要发布的包
+    private static final String[] CLASSIFIERS = {"-sources", "-javadoc", "-tests"};
+
+    private final Map<String, List<File>> cache = new ConcurrentHashMap<String, List<File>>();
+    private int maxDepth = 10;
+
+    /**
+     * All build outputs under the repo (cached).
+     */
+    public List<File> find(File repoDir) {
+        String key = repoDir.getAbsolutePath();
+        List<File> found = cache.get(key);
+        if (found == null) {
+            found = Collections.unmodifiableList(walk(repoDir, maxDepth, Long.MIN_VALUE));
+            cache.put(key, found);
+        }
+        return found;
+    }
+
+    /**
+     * Build outputs whose path relative to the repo matches the glob (always '/' separated).
+     */
+    public List<File> find(File repoDir, String glob) {
+        return match(find(repoDir), repoDir, glob);
+    }
+
+    /**
+     * Build outputs of one packaging type, e.g. ".war".
+     */
+    public List<File> findByType(File repoDir, String type) {
+        return ofType(find(repoDir), type);
+    }
+
+    public List<File> findWars(File repoDir) {
+        return findByType(repoDir, ".war");
+    }
+
+    /**
+     * Forget cached results of every repo containing {@code dir} (or inside it); call after maven ran there.
+     */
+    public void invalidate(File dir) {
+        String d = dir.getAbsolutePath();
+        for (String key : cache.keySet()) {
+            if (d.equals(key) || d.startsWith(key + File.separator) || key.startsWith(d + File.separator)) {
+                cache.remove(key);
+            }
+        }
+    }
+
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * @return packaging type of the file name (".war", ".tar.gz" ...), null when not a build output type
+     */
+    public static String typeOf(String fileName) {
+        String n = fileName.toLowerCase();
+        for (int i = 0; i < TYPES.length; i++) {
+            if (n.endsWith(TYPES[i])) return TYPES[i];
+        }
+        return null;
+    }
+
+    /**
+     * Files whose path relative to repoDir matches the glob (always '/' separated).
+     */
+    public static List<File> match(List<File> files, File repoDir, String glob) {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob.replace('\\', '/'));
+        Path root = repoDir.getAbsoluteFile().toPath().normalize();
+        List<File> result = new ArrayList<File>();
+        for (int i = 0; i < files.size(); i++) {
+            Path p = files.get(i).getAbsoluteFile().toPath().normalize();
+            if (!p.startsWith(root)) continue;
+            String rel = root.relativize(p).toString().replace('\\', '/');
+            if (matcher.matches(root.getFileSystem().getPath(rel))) result.add(files.get(i));
+        }
+        return result;
+    }
+
+    public static List<File> ofType(List<File> files, String type) {
+        List<File> result = new ArrayList<File>();
+        for (int i = 0; i < files.size(); i++) {
+            if (files.get(i).getName().toLowerCase().endsWith(type)) result.add(files.get(i));
+        }
         return result;
     }
 
-    private static void scan(File dir, List<File> result) {
-        File[] files = dir.listFiles();
-        if (files == null) return;
+    /**
+     * Files written into any target/ dir under buildDir since the given time,
+     * i.e. what a maven step just produced (not cached).
+     */
+    public static List<File> findBuildOutputs(File buildDir, long sinceMillis) {
+        // 文件系统时间戳精度有限，留 2 秒余量
+        return walk(buildDir, Integer.MAX_VALUE, sinceMillis - 2000L);
+    }
+
+    private static List<File> walk(File root, int maxDepth, final long since) {
+        final List<File> result = new ArrayList<File>();
+        if (!root.isDirectory()) return result;
+        final Path start = root.toPath();
 
-        for (File f : files) {
-            if (f.isDirectory()) {
-                if ("target".equals(f.getName())) {
-                    collectWar(f, result);
-                } else {
-                    scan(f, result);
+        try {
+            Files.walkFileTree(root.toPath(), EnumSet.noneOf(FileVisitOption.class), maxDepth, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (dir.equals(start)) return FileVisitResult.CONTINUE;
+                    String name = dir.getFileName().toString();
+                    if (isPruned(name)) return FileVisitResult.SKIP_SUBTREE;
+                    // 只跳过 maven 模块的源码目录；名字叫 src 的模块照常扫描
+                    if ("src".equals(name) && Files.isRegularFile(dir.resolveSibling("pom.xml"))) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if ("target".equals(name)) {
+                        collect(dir, since, result);
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
                 }
-            }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    // 正好在 maxDepth 的目录不会进 preVisitDirectory，而是当作文件访问
+                    if (attrs.isDirectory() && "target".equals(file.getFileName().toString())) {
+                        collect(file, since, result);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                    // 无权限/被删除的目录跳过
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot scan " + root.getAbsolutePath() + ": " + ex.getMessage(), ex);
         }
+        return result;
     }
 
-    private static void collectWar(File targetDir, List<File> result) {
-        File[] wars = targetDir.listFiles((d, name) ->
-                name.endsWith(".war")
-                        && !name.startsWith("original-")
-                        && !name.endsWith("-sources.war")
-        );
-        if (wars != null) {
-            for (File war : wars) {
-                result.add(war);
+    private static void collect(Path targetDir, long since, List<File> result) throws IOException {
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(targetDir)) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                if (!isOutput(name) || !Files.isRegularFile(p)) continue;
+                if (since != Long.MIN_VALUE && Files.getLastModifiedTime(p).toMillis() < since) continue;
+                result.add(p.toFile());
             }
         }
     }
-}
 
+    private static boolean isOutput(String name) {
+        String type = typeOf(name);
+        if (type == null || name.startsWith("original-")) return false;
+        String base = name.substring(0, name.length() - type.length());
+        for (int i = 0; i < CLASSIFIERS.length; i++) {
+            if (base.endsWith(CLASSIFIERS[i])) return false;
+        }
+        return true;
+    }
+
+    private static boolean isPruned(String dirName) {
+        for (int i = 0; i < PRUNED.length; i++) {
+            if (PRUNED[i].equals(dirName)) return true;
+        }
+        return false;
+    }
+}
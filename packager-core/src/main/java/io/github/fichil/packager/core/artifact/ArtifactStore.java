@@ -0,0 +1,452 @@
+package io.github.fichil.packager.core.artifact;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.github.fichil.packager.core.metrics.RunMetrics;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Content-addressable artifact store:
+ * - objects/ab/abcdef...: every distinct file once, by sha256; objects/ab/.abcdef....used: its mtime is the last
+ *   time a run reused the object (the object's own mtime is shared with the linked outputs, so it is not touched)
+ * - refs/&lt;job&gt;/&lt;runId&gt;.json: what a run published (output path -> sha256)
+ * - output files are hard links onto the objects, identical wars of different jobs / runs share one copy;
+ *   falls back to a copy when the output dir is on another filesystem. Don't edit outputs in place, that
+ *   changes the stored object too (the copier and maven always replace files, they don't rewrite them)
+ * - {@link #gc}: keeps the newest refs per job, deletes objects no kept ref points to
+ * - {@link #restore}: republish an older run from its ref without building
+ */
+public class ArtifactStore {
+
+    private static final ObjectMapper JSON = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .enable(SerializationFeature.INDENT_OUTPUT);
+
+    // 对象新写入后一段时间内不回收：另一个进程可能刚放进去、ref 还没写
+    private static final long GC_GRACE_MILLIS = 10L * 60L * 1000L;
+
+    // 同一个 store 目录：发布共享读锁，gc 独占写锁
+    private static final Map<String, ReadWriteLock> LOCKS = new ConcurrentHashMap<String, ReadWriteLock>();
+
+    public static class Ref {
+        private String job;
+        private String runId;
+        private long createdAt;
+        private String outputDir;
+        private List<RefFile> files = new ArrayList<RefFile>();
+
+        public String getJob() { return job; }
+        public void setJob(String job) { this.job = job; }
+
+        public String getRunId() { return runId; }
+        public void setRunId(String runId) { this.runId = runId; }
+
+        public long getCreatedAt() { return createdAt; }
+        public void setCreatedAt(long createdAt) { this.createdAt = createdAt; }
+
+        public String getOutputDir() { return outputDir; }
+        public void setOutputDir(String outputDir) { this.outputDir = outputDir; }
+
+        public List<RefFile> getFiles() { return files; }
+        public void setFiles(List<RefFile> files) { this.files = files; }
+    }
+
+    public static class RefFile {
+        private String path;
+        private String repo;
+        private String sha256;
+        private long size;
+
+        /** relative to the output dir, '/' separated */
+        public String getPath() { return path; }
+        public void setPath(String path) { this.path = path; }
+
+        public String getRepo() { return repo; }
+        public void setRepo(String repo) { this.repo = repo; }
+
+        public String getSha256() { return sha256; }
+        public void setSha256(String sha256) { this.sha256 = sha256; }
+
+        public long getSize() { return size; }
+        public void setSize(long size) { this.size = size; }
+    }
+
+    private final File root;
+    private final boolean dryRun;
+    private final ReadWriteLock lock;
+    private int parallelism = 4;
+    private volatile boolean linkUnsupported;
+    private RunMetrics metrics;
+    private String metricsJob;
+
+    public ArtifactStore(File root, boolean dryRun) {
+        this.root = root.getAbsoluteFile();
+        this.dryRun = dryRun;
+        ReadWriteLock l = new ReentrantReadWriteLock();
+        ReadWriteLock prev = LOCKS.putIfAbsent(this.root.getPath(), l);
+        this.lock = prev != null ? prev : l;
+    }
+
+    public File getRoot() { return root; }
+
+    /**
+     * Files hashed / placed at the same time (default 4).
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("store parallelism must be >= 1: " + parallelism);
+        this.parallelism = parallelism;
+    }
+
+    public void setMetrics(RunMetrics metrics, String job) {
+        this.metrics = metrics;
+        this.metricsJob = job;
+    }
+
+    /**
+     * Put every source into the store, place the targets as links onto the objects and record the run.
+     */
+    public Ref publish(String job, String runId, File outDir, List<ArtifactCopier.Copy> copies) throws Exception {
+        // 同一个目标写两次：以后面的为准
+        Map<String, ArtifactCopier.Copy> byTarget = new LinkedHashMap<String, ArtifactCopier.Copy>();
+        for (int i = 0; i < copies.size(); i++) {
+            ArtifactCopier.Copy c = copies.get(i);
+            String key = c.getTo().getAbsolutePath();
+            if (byTarget.containsKey(key)) {
+                System.out.println("[WARN] artifact target written twice, keeping " + c.getFrom().getAbsolutePath() + ": " + key);
+                byTarget.remove(key);
+            }
+            byTarget.put(key, c);
+        }
+        final List<ArtifactCopier.Copy> todo = new ArrayList<ArtifactCopier.Copy>(byTarget.values());
+
+        if (dryRun) {
+            for (int i = 0; i < todo.size(); i++) {
+                System.out.println("[DRY-RUN] skip store: " + todo.get(i).getFrom().getAbsolutePath()
+                        + " -> " + todo.get(i).getTo().getAbsolutePath());
+            }
+            return null;
+        }
+
+        final RefFile[] files = new RefFile[todo.size()];
+        Ref ref = new Ref();
+        // ref 写完才放锁：gc 不会在中间回收刚放进去的对象
+        lock.readLock().lock();
+        try {
+            runAll(todo.size(), new Step() {
+                @Override
+                public void run(int i) throws Exception {
+                    files[i] = publishOne(todo.get(i));
+                }
+            });
+
+            ref.setJob(job);
+            ref.setRunId(runId);
+            ref.setCreatedAt(System.currentTimeMillis());
+            ref.setOutputDir(outDir.getAbsolutePath());
+            Path base = outDir.getAbsoluteFile().toPath().normalize();
+            for (int i = 0; i < files.length; i++) {
+                Path to = todo.get(i).getTo().getAbsoluteFile().toPath().normalize();
+                files[i].setPath((to.startsWith(base) ? base.relativize(to) : to.getFileName()).toString().replace('\\', '/'));
+                ref.getFiles().add(files[i]);
+            }
+            writeRef(ref);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return ref;
+    }
+
+    /**
+     * Place the files of an earlier run into outDir again (default: the run's own output dir).
+     */
+    public Ref restore(String job, String runId, File outDir) throws Exception {
+        File f = refFile(job, runId);
+        if (!f.isFile()) {
+            throw new IllegalArgumentException("No stored run " + runId + " for job " + job + " (" + f.getAbsolutePath() + ")");
+        }
+        final Ref ref = JSON.readValue(f, Ref.class);
+        final File dir = outDir != null ? outDir : new File(ref.getOutputDir());
+
+        lock.readLock().lock();
+        try {
+            runAll(ref.getFiles().size(), new Step() {
+                @Override
+                public void run(int i) throws Exception {
+                    RefFile rf = ref.getFiles().get(i);
+                    File object = objectFile(rf.getSha256());
+                    if (!object.isFile()) {
+                        throw new IllegalStateException("Store object missing (collected?): " + rf.getSha256() + " for " + rf.getPath());
+                    }
+                    File to = new File(dir, rf.getPath());
+                    if (dryRun) {
+                        System.out.println("[DRY-RUN] skip restore: " + object.getAbsolutePath() + " -> " + to.getAbsolutePath());
+                        return;
+                    }
+                    place(object, to);
+                    System.out.println("[PLAN] restore " + rf.getPath() + " -> " + to.getAbsolutePath());
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+        return ref;
+    }
+
+    /**
+     * Drop all but the newest {@code keep} refs of the job, then delete objects no ref points to.
+     *
+     * @return bytes freed
+     */
+    public long gc(String job, int keep) throws Exception {
+        if (dryRun) return 0L;
+        lock.writeLock().lock();
+        try {
+            File jobDir = new File(new File(root, "refs"), safeName(job));
+            String[] names = jobDir.list();
+            if (names != null) {
+                Arrays.sort(names);
+                int refs = 0;
+                for (int i = names.length - 1; i >= 0; i--) {
+                    if (!names[i].endsWith(".json")) continue;
+                    if (++refs > keep) Files.deleteIfExists(new File(jobDir, names[i]).toPath());
+                }
+            }
+
+            // 引用计数：所有 job 保留下来的 ref 里每个对象被引用的次数
+            Map<String, Integer> refCount = new HashMap<String, Integer>();
+            File[] jobs = new File(root, "refs").listFiles();
+            if (jobs != null) {
+                for (int j = 0; j < jobs.length; j++) {
+                    File[] refFiles = jobs[j].listFiles();
+                    if (refFiles == null) continue;
+                    for (int k = 0; k < refFiles.length; k++) {
+                        if (!refFiles[k].getName().endsWith(".json")) continue;
+                        Ref ref;
+                        try {
+                            ref = JSON.readValue(refFiles[k], Ref.class);
+                        } catch (Exception ex) {
+                            // 读不了的 ref 不能判断引用了什么：这次不回收
+                            System.out.println("[WARN] store gc skipped, unreadable ref " + refFiles[k].getAbsolutePath() + ": " + ex.getMessage());
+                            return 0L;
+                        }
+                        Set<String> seen = new HashSet<String>();
+                        for (int f = 0; f < ref.getFiles().size(); f++) {
+                            String sha = ref.getFiles().get(f).getSha256();
+                            if (sha == null || !seen.add(sha)) continue;
+                            Integer n = refCount.get(sha);
+                            refCount.put(sha, Integer.valueOf(n == null ? 1 : n.intValue() + 1));
+                        }
+                    }
+                }
+            }
+
+            long freed = 0L;
+            int removed = 0;
+            long now = System.currentTimeMillis();
+            File[] buckets = new File(root, "objects").listFiles();
+            if (buckets != null) {
+                for (int b = 0; b < buckets.length; b++) {
+                    File[] objects = buckets[b].listFiles();
+                    if (objects == null) continue;
+                    for (int o = 0; o < objects.length; o++) {
+                        File obj = objects[o];
+                        if (obj.getName().startsWith(".") || refCount.containsKey(obj.getName())) continue;
+                        File used = usedStamp(obj);
+                        if (now - Math.max(obj.lastModified(), used.lastModified()) < GC_GRACE_MILLIS) continue;
+                        long size = obj.length();
+                        if (obj.delete()) {
+                            used.delete();
+                            freed += size;
+                            removed++;
+                        }
+                    }
+                }
+            }
+            if (removed > 0) {
+                System.out.println("[INFO] store gc: removed " + removed + " object(s), " + (freed / 1024 / 1024) + " MB");
+            }
+            return freed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private RefFile publishOne(ArtifactCopier.Copy c) throws Exception {
+        File from = c.getFrom();
+        File to = c.getTo();
+        if (!from.isFile()) {
+            throw new IllegalArgumentException("Artifact not found: " + from.getAbsolutePath());
+        }
+
+        RunMetrics.Timer timer = (metrics == null ? null
+                : metrics.start(metricsJob, c.getRepo(), RunMetrics.KIND_COPY, "store")
+                .detail(from.getAbsolutePath() + " -> " + to.getAbsolutePath()));
+        try {
+            String sha = ArtifactCopier.sha256(from);
+            File object = objectFile(sha);
+            if (object.isFile()) {
+                // 已有同内容的对象（别的 job / 上一次运行）：不再写，只记一下使用时间（gc 宽限期用）
+                // 不能改对象本身的 mtime：输出文件是它的硬链接，CopyManifest 靠 size+mtime 判断未变
+                File used = usedStamp(object);
+                if (!used.createNewFile()) used.setLastModified(System.currentTimeMillis());
+            } else {
+                File dir = object.getParentFile();
+                Files.createDirectories(dir.toPath());
+                File tmp = new File(dir, "." + sha + ".tmp-" + Long.toHexString(System.nanoTime()));
+                try {
+                    try (FileChannel in = FileChannel.open(from.toPath(), StandardOpenOption.READ);
+                         FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                        long size = in.size();
+                        long pos = 0;
+                        while (pos < size) {
+                            pos += in.transferTo(pos, size - pos, out);
+                        }
+                    }
+                    moveIntoPlace(tmp, object);
+                } finally {
+                    Files.deleteIfExists(tmp.toPath());
+                }
+                c.setBytes(object.length());
+            }
+
+            if (to.isFile() && Files.isSameFile(object.toPath(), to.toPath())) {
+                c.setSkipped(true);
+                System.out.println("[SKIP] store, unchanged: " + to.getAbsolutePath());
+            } else {
+                place(object, to);
+                System.out.println("[PLAN] store " + sha.substring(0, 12) + " -> " + to.getAbsolutePath());
+            }
+
+            RefFile rf = new RefFile();
+            rf.setRepo(c.getRepo());
+            rf.setSha256(sha);
+            rf.setSize(object.length());
+            if (timer != null) {
+                timer.bytes(c.getBytes());
+                if (c.isSkipped()) {
+                    timer.skipped();
+                } else {
+                    timer.ok();
+                }
+            }
+            return rf;
+        } catch (Exception ex) {
+            if (timer != null) timer.failed();
+            throw ex;
+        }
+    }
+
+    // 输出文件 = 对象的硬链接（temp 名 + rename）；跨盘时复制
+    private void place(File object, File to) throws Exception {
+        File dir = to.getAbsoluteFile().getParentFile();
+        Files.createDirectories(dir.toPath());
+        File tmp = new File(dir, "." + to.getName() + ".tmp-" + Long.toHexString(System.nanoTime()));
+        try {
+            boolean linked = false;
+            if (!linkUnsupported) {
+                try {
+                    Files.createLink(tmp.toPath(), object.toPath());
+                    linked = true;
+                } catch (java.io.IOException | UnsupportedOperationException ex) {
+                    linkUnsupported = true;
+                    System.out.println("[WARN] cannot link " + dir.getAbsolutePath() + " to the artifact store " + root.getAbsolutePath()
+                            + " (other filesystem?), copying instead");
+                }
+            }
+            if (!linked) Files.copy(object.toPath(), tmp.toPath());
+            moveIntoPlace(tmp, to);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    private File objectFile(String sha) {
+        return new File(new File(new File(root, "objects"), sha.substring(0, 2)), sha);
+    }
+
+    private static File usedStamp(File object) {
+        return new File(object.getParentFile(), "." + object.getName() + ".used");
+    }
+
+    private File refFile(String job, String runId) {
+        return new File(new File(new File(root, "refs"), safeName(job)), safeName(runId) + ".json");
+    }
+
+    private void writeRef(Ref ref) throws Exception {
+        File f = refFile(ref.getJob(), ref.getRunId());
+        Files.createDirectories(f.getParentFile().toPath());
+        File tmp = new File(f.getParentFile(), f.getName() + ".tmp");
+        JSON.writeValue(tmp, ref);
+        moveIntoPlace(tmp, f);
+    }
+
+    private static void moveIntoPlace(File tmp, File to) throws Exception {
+        try {
+            Files.move(tmp.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (java.nio.file.AtomicMoveNotSupportedException ex) {
+            Files.move(tmp.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String safeName(String s) {
+        return s == null ? "_" : s.replaceAll("[^A-Za-z0-9._\\-]+", "_");
+    }
+
+    private interface Step {
+        void run(int index) throws Exception;
+    }
+
+    // 并发执行，全部跑完后抛出第一个异常
+    private void runAll(int count, final Step step) throws Exception {
+        if (count == 0) return;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, count));
+        Exception failure = null;
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < count; i++) {
+                final int index = i;
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        step.run(index);
+                        return null;
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (failure == null) failure = (cause instanceof Exception) ? (Exception) cause : ex;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        if (failure != null) throw failure;
+    }
+}
@@ -0,0 +1,110 @@
+package io.github.fichil.packager.core.artifact;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What was last copied into one output directory ({@value #FILE_NAME}), keyed by file name.
+ * Lets the copier recognise an unchanged target by size + mtime instead of reading it back
+ * (targets often live on network shares).
+ */
+final class CopyManifest {
+
+    static final String FILE_NAME = ".packager-manifest.json";
+
+    public static class Entry {
+        private long size;
+        private long modified;
+        private String sha256;
+        private String source;
+        private long sourceSize;
+        private long sourceModified;
+
+        /** target size / mtime right after it was written */
+        public long getSize() { return size; }
+        public void setSize(long size) { this.size = size; }
+
+        public long getModified() { return modified; }
+        public void setModified(long modified) { this.modified = modified; }
+
+        /** content hash (same for source and target) */
+        public String getSha256() { return sha256; }
+        public void setSha256(String sha256) { this.sha256 = sha256; }
+
+        public String getSource() { return source; }
+        public void setSource(String source) { this.source = source; }
+
+        public long getSourceSize() { return sourceSize; }
+        public void setSourceSize(long sourceSize) { this.sourceSize = sourceSize; }
+
+        public long getSourceModified() { return sourceModified; }
+        public void setSourceModified(long sourceModified) { this.sourceModified = sourceModified; }
+    }
+
+    public static class State {
+        private Map<String, Entry> files = new LinkedHashMap<String, Entry>();
+
+        public Map<String, Entry> getFiles() { return files; }
+        public void setFiles(Map<String, Entry> files) { this.files = files; }
+    }
+
+    private static final ObjectMapper JSON = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final File dir;
+    private final State state;
+    private boolean dirty;
+
+    private CopyManifest(File dir, State state) {
+        this.dir = dir;
+        this.state = state;
+    }
+
+    /**
+     * Missing or unreadable manifest = empty (every target gets verified once).
+     */
+    static CopyManifest open(File dir) {
+        File f = new File(dir, FILE_NAME);
+        State st = null;
+        if (f.isFile()) {
+            try {
+                st = JSON.readValue(f, State.class);
+            } catch (Exception ex) {
+                System.out.println("[WARN] copy manifest unreadable, ignoring: " + f.getAbsolutePath() + " (" + ex.getMessage() + ")");
+            }
+        }
+        if (st == null) st = new State();
+        if (st.getFiles() == null) st.setFiles(new LinkedHashMap<String, Entry>());
+        return new CopyManifest(dir, st);
+    }
+
+    synchronized Entry get(String name) {
+        return state.getFiles().get(name);
+    }
+
+    synchronized void put(String name, Entry e) {
+        state.getFiles().put(name, e);
+        dirty = true;
+    }
+
+    synchronized void save() throws Exception {
+        if (!dirty) return;
+        Files.createDirectories(dir.toPath());
+
+        File file = new File(dir, FILE_NAME);
+        File tmp = new File(dir, FILE_NAME + ".tmp");
+        JSON.writerWithDefaultPrettyPrinter().writeValue(tmp, state);
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (java.nio.file.AtomicMoveNotSupportedException ex) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        dirty = false;
+    }
+}
@@ -0,0 +1,112 @@
+package io.github.fichil.packager.core.artifact;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * gzip compressed on several cores (like pigz): the stream is cut into blocks, every block becomes its own
+ * gzip member, members are written in order. Concatenated members are a valid .gz (gzip -d, tar xzf,
+ * GZIPInputStream all read it).
+ */
+final class ParallelGzipOutputStream extends OutputStream {
+
+    private static final int BLOCK = 1024 * 1024;
+
+    private final OutputStream out;
+    private final ExecutorService pool;
+    private final int maxPending;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+    private byte[] buf = new byte[BLOCK];
+    private int len;
+    private boolean closed;
+
+    ParallelGzipOutputStream(OutputStream out, int threads) {
+        this.out = out;
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        // 压缩好的块按顺序写出，排队的块数限制内存占用
+        this.maxPending = Math.max(1, threads) * 2;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        buf[len++] = (byte) b;
+        if (len == BLOCK) submitBlock();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int n) throws IOException {
+        while (n > 0) {
+            int k = Math.min(n, BLOCK - len);
+            System.arraycopy(b, off, buf, len, k);
+            len += k;
+            off += k;
+            n -= k;
+            if (len == BLOCK) submitBlock();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // 块边界由 BLOCK 决定，flush 只把已压缩的块写出
+        drain(0);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            if (len > 0) submitBlock();
+            drain(0);
+        } finally {
+            // 压缩失败也要关掉底层文件
+            pool.shutdownNow();
+            out.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        final byte[] block = len == BLOCK ? buf : Arrays.copyOf(buf, len);
+        buf = new byte[BLOCK];
+        len = 0;
+        pending.add(pool.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream(block.length / 2 + 64);
+                try (GZIPOutputStream gz = new GZIPOutputStream(bos, 64 * 1024)) {
+                    gz.write(block);
+                }
+                return bos.toByteArray();
+            }
+        }));
+        drain(maxPending);
+    }
+
+    // 写出已提交的块，直到排队数 <= keep
+    private void drain(int keep) throws IOException {
+        while (pending.size() > keep) {
+            Future<byte[]> f = pending.poll();
+            try {
+                out.write(f.get());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("gzip interrupted");
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+        }
+    }
+}
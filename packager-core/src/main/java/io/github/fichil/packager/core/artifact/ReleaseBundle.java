@@ -0,0 +1,353 @@
+package io.github.fichil.packager.core.artifact;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the selected artifacts into one release archive (.zip, .tar or .tar.gz/.tgz), read straight from
+ * the build dirs, with {@value #MANIFEST_NAME} (job, repo, commit, size, sha256 per file) as first entry.
+ * - checksums are computed on all cores before writing
+ * - zip: war/jar/ear/zip are STORED, they are compressed already; other files are deflated
+ * - tar.gz: gzip runs on all cores ({@link ParallelGzipOutputStream})
+ * - the archive is written to a temp file next to the target and renamed
+ */
+public class ReleaseBundle {
+
+    public static final String MANIFEST_NAME = "release-manifest.json";
+
+    private static final int BUFFER = 1024 * 1024;
+    // ustar 的 size 字段：11 位八进制
+    private static final long TAR_MAX_SIZE = 077777777777L;
+
+    private static final ObjectMapper JSON = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    /**
+     * One file of the bundle; size / sha256 are filled in while writing.
+     */
+    public static final class Entry {
+        private final String path;
+        private final String repo;
+        private final String commit;
+        private final File source;
+        private long size;
+        private String sha256;
+        private long crc;
+
+        /**
+         * @param path path inside the archive, '/' separated
+         */
+        public Entry(String path, String repo, String commit, File source) {
+            this.path = path;
+            this.repo = repo;
+            this.commit = commit;
+            this.source = source;
+        }
+
+        public String getPath() { return path; }
+
+        public String getRepo() { return repo; }
+
+        /** HEAD of the repo the file was built from, null when unknown */
+        public String getCommit() { return commit; }
+
+        public long getSize() { return size; }
+
+        public String getSha256() { return sha256; }
+    }
+
+    /**
+     * Content of {@value #MANIFEST_NAME}.
+     */
+    public static class Manifest {
+        private String job;
+        private long createdAt;
+        private List<Entry> files = new ArrayList<Entry>();
+
+        public String getJob() { return job; }
+        public void setJob(String job) { this.job = job; }
+
+        public long getCreatedAt() { return createdAt; }
+        public void setCreatedAt(long createdAt) { this.createdAt = createdAt; }
+
+        public List<Entry> getFiles() { return files; }
+        public void setFiles(List<Entry> files) { this.files = files; }
+    }
+
+    private final boolean dryRun;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    public ReleaseBundle(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * Threads for checksums and gzip, default = cores.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("bundle parallelism must be >= 1: " + parallelism);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return the manifest written into the archive (null in dry-run)
+     */
+    public Manifest write(File archive, String job, List<Entry> entries) throws Exception {
+        String format = formatOf(archive.getName());
+
+        // 同一路径写两次：以后面的为准，与复制到目录的结果一致
+        Map<String, Entry> byPath = new LinkedHashMap<String, Entry>();
+        for (int i = 0; i < entries.size(); i++) {
+            Entry e = entries.get(i);
+            if (MANIFEST_NAME.equals(e.getPath())) {
+                throw new IllegalArgumentException("Artifact path is reserved for the bundle manifest: " + e.getPath());
+            }
+            if (byPath.containsKey(e.getPath())) {
+                System.out.println("[WARN] bundle path written twice, keeping " + e.source.getAbsolutePath() + ": " + e.getPath());
+                byPath.remove(e.getPath());
+            }
+            byPath.put(e.getPath(), e);
+        }
+        List<Entry> todo = new ArrayList<Entry>(byPath.values());
+
+        if (dryRun) {
+            for (int i = 0; i < todo.size(); i++) {
+                System.out.println("[DRY-RUN] skip bundle: " + todo.get(i).source.getAbsolutePath()
+                        + " -> " + archive.getAbsolutePath() + "!/" + todo.get(i).getPath());
+            }
+            return null;
+        }
+
+        for (int i = 0; i < todo.size(); i++) {
+            if (!todo.get(i).source.isFile()) {
+                throw new IllegalArgumentException("Artifact not found: " + todo.get(i).source.getAbsolutePath());
+            }
+        }
+        checksums(todo);
+
+        Manifest manifest = new Manifest();
+        manifest.setJob(job);
+        manifest.setCreatedAt(System.currentTimeMillis());
+        manifest.setFiles(todo);
+        byte[] manifestBytes = JSON.writeValueAsBytes(manifest);
+
+        File dir = archive.getAbsoluteFile().getParentFile();
+        Files.createDirectories(dir.toPath());
+        File tmp = new File(dir, "." + archive.getName() + ".tmp-" + Long.toHexString(System.nanoTime()));
+        try {
+            System.out.println("[PLAN] bundle " + todo.size() + " file(s) -> " + archive.getAbsolutePath());
+            if ("zip".equals(format)) {
+                writeZip(tmp, manifestBytes, todo);
+            } else {
+                writeTar(tmp, "tar.gz".equals(format), manifestBytes, todo);
+            }
+            try {
+                Files.move(tmp.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (java.nio.file.AtomicMoveNotSupportedException ex) {
+                Files.move(tmp.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+        return manifest;
+    }
+
+    /**
+     * @return "zip", "tar" or "tar.gz"
+     */
+    static String formatOf(String name) {
+        String n = name.toLowerCase();
+        if (n.endsWith(".zip")) return "zip";
+        if (n.endsWith(".tar")) return "tar";
+        if (n.endsWith(".tar.gz") || n.endsWith(".tgz")) return "tar.gz";
+        throw new IllegalArgumentException("Unsupported bundle format (.zip, .tar, .tar.gz, .tgz): " + name);
+    }
+
+    // 写之前并发算好 size/sha256/crc：manifest 放在最前面，STORED 条目也要先知道 crc
+    private void checksums(List<Entry> todo) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, todo.size())));
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < todo.size(); i++) {
+                final Entry e = todo.get(i);
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        MessageDigest md = MessageDigest.getInstance("SHA-256");
+                        CRC32 crc = new CRC32();
+                        long size = 0L;
+                        byte[] buf = new byte[BUFFER];
+                        try (InputStream in = Files.newInputStream(e.source.toPath())) {
+                            int n;
+                            while ((n = in.read(buf)) > 0) {
+                                md.update(buf, 0, n);
+                                crc.update(buf, 0, n);
+                                size += n;
+                            }
+                        }
+                        e.size = size;
+                        e.crc = crc.getValue();
+                        e.sha256 = ArtifactCopier.hex(md.digest());
+                        return null;
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : ex;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void writeZip(File tmp, byte[] manifest, List<Entry> todo) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), BUFFER))) {
+            ZipEntry m = new ZipEntry(MANIFEST_NAME);
+            zip.putNextEntry(m);
+            zip.write(manifest);
+            zip.closeEntry();
+
+            byte[] buf = new byte[BUFFER];
+            for (int i = 0; i < todo.size(); i++) {
+                Entry e = todo.get(i);
+                ZipEntry ze = new ZipEntry(e.getPath());
+                ze.setTime(e.source.lastModified());
+                if (ArtifactFinder.typeOf(e.getPath()) != null) {
+                    // war/jar 已经是压缩包，原样存储
+                    ze.setMethod(ZipEntry.STORED);
+                    ze.setSize(e.size);
+                    ze.setCompressedSize(e.size);
+                    ze.setCrc(e.crc);
+                }
+                zip.putNextEntry(ze);
+                copyStream(e, zip, buf);
+                zip.closeEntry();
+            }
+        }
+    }
+
+    private void writeTar(File tmp, boolean gzip, byte[] manifest, List<Entry> todo) throws IOException {
+        OutputStream file = new BufferedOutputStream(new FileOutputStream(tmp), BUFFER);
+        try (OutputStream out = gzip ? new ParallelGzipOutputStream(file, parallelism) : file) {
+            long now = System.currentTimeMillis();
+            tarHeader(out, MANIFEST_NAME, manifest.length, now);
+            out.write(manifest);
+            long written = 512L + pad(out, manifest.length);
+
+            byte[] buf = new byte[BUFFER];
+            for (int i = 0; i < todo.size(); i++) {
+                Entry e = todo.get(i);
+                if (e.size > TAR_MAX_SIZE) {
+                    throw new IllegalArgumentException("File too large for tar, use a .zip bundle: " + e.source.getAbsolutePath());
+                }
+                tarHeader(out, e.getPath(), e.size, e.source.lastModified());
+                copyStream(e, out, buf);
+                written += 512L + pad(out, e.size);
+            }
+
+            // 结尾两个空块，并补齐到 10240 字节的记录长度（GNU tar 默认）
+            long end = written + 1024L;
+            long record = 20L * 512L;
+            long total = ((end + record - 1) / record) * record;
+            out.write(new byte[(int) (total - written)]);
+        }
+    }
+
+    private static void copyStream(Entry e, OutputStream out, byte[] buf) throws IOException {
+        long copied = 0L;
+        try (InputStream in = Files.newInputStream(e.source.toPath())) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+                copied += n;
+            }
+        }
+        if (copied != e.size) {
+            throw new IOException("File changed while bundling: " + e.source.getAbsolutePath());
+        }
+    }
+
+    // 数据补齐到 512 的倍数，返回数据 + 补齐的长度
+    private static long pad(OutputStream out, long size) throws IOException {
+        int rest = (int) (size % 512L);
+        if (rest != 0) out.write(new byte[512 - rest]);
+        return rest == 0 ? size : size + 512 - rest;
+    }
+
+    private static void tarHeader(OutputStream out, String path, long size, long mtimeMillis) throws IOException {
+        byte[] h = new byte[512];
+        String name = path;
+        String prefix = "";
+        if (utf8(name).length > 100) {
+            // ustar: 长路径拆成 prefix(155) + name(100)
+            int cut = name.lastIndexOf('/');
+            if (cut <= 0 || utf8(name.substring(cut + 1)).length > 100 || utf8(name.substring(0, cut)).length > 155) {
+                throw new IllegalArgumentException("Path too long for tar, use a .zip bundle: " + path);
+            }
+            prefix = name.substring(0, cut);
+            name = name.substring(cut + 1);
+        }
+        put(h, 0, 100, utf8(name));
+        put(h, 100, 8, octal(0644, 7));
+        put(h, 108, 8, octal(0, 7));
+        put(h, 116, 8, octal(0, 7));
+        put(h, 124, 12, octal(size, 11));
+        put(h, 136, 12, octal(mtimeMillis / 1000L, 11));
+        h[156] = '0';
+        put(h, 257, 6, utf8("ustar"));
+        put(h, 263, 2, utf8("00"));
+        put(h, 345, 155, utf8(prefix));
+
+        // checksum 按校验字段为 8 个空格计算
+        for (int i = 148; i < 156; i++) h[i] = ' ';
+        long sum = 0L;
+        for (int i = 0; i < 512; i++) sum += (h[i] & 0xff);
+        byte[] chk = octal(sum, 6);
+        System.arraycopy(chk, 0, h, 148, 6);
+        h[154] = 0;
+        h[155] = ' ';
+        out.write(h);
+    }
+
+    private static byte[] octal(long v, int digits) {
+        String s = Long.toOctalString(v);
+        StringBuilder sb = new StringBuilder();
+        for (int i = s.length(); i < digits; i++) sb.append('0');
+        return utf8(sb.append(s).toString());
+    }
+
+    private static void put(byte[] h, int off, int max, byte[] v) {
+        System.arraycopy(v, 0, h, off, Math.min(max, v.length));
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,178 @@
+package io.github.fichil.packager.core.cache;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent record of the last successful maven step per (repo path, workDir, goals).
+ * - fingerprint: hash of git HEAD + effective mvn command + fingerprints of the upstream builds
+ * - artifacts: files the step produced; a hit requires them to still exist
+ * - installed: last fingerprint installed into the local maven repo per project (gitUrl + workDir),
+ *   so an install step is never skipped after another branch/path installed the same project
+ *
+ * Stored as one small JSON file, rewritten atomically after every successful build.
+ */
+public class BuildStateCache {
+
+    public static class Entry {
+        private String fingerprint;
+        private String head;
+        private String commandHash;
+        private List<String> artifacts;
+        private long builtAt;
+
+        public String getFingerprint() { return fingerprint; }
+        public void setFingerprint(String fingerprint) { this.fingerprint = fingerprint; }
+
+        public String getHead() { return head; }
+        public void setHead(String head) { this.head = head; }
+
+        public String getCommandHash() { return commandHash; }
+        public void setCommandHash(String commandHash) { this.commandHash = commandHash; }
+
+        public List<String> getArtifacts() { return artifacts; }
+        public void setArtifacts(List<String> artifacts) { this.artifacts = artifacts; }
+
+        public long getBuiltAt() { return builtAt; }
+        public void setBuiltAt(long builtAt) { this.builtAt = builtAt; }
+    }
+
+    public static class State {
+        private Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        private Map<String, String> installed = new LinkedHashMap<String, String>();
+
+        public Map<String, Entry> getEntries() { return entries; }
+        public void setEntries(Map<String, Entry> entries) { this.entries = entries; }
+
+        public Map<String, String> getInstalled() { return installed; }
+        public void setInstalled(Map<String, String> installed) { this.installed = installed; }
+    }
+
+    private static final ObjectMapper JSON = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final File file;
+    private State state;
+
+    private BuildStateCache(File file, State state) {
+        this.file = file;
+        this.state = state;
+    }
+
+    /**
+     * Load the cache file; a missing or unreadable file starts an empty cache.
+     */
+    public static BuildStateCache open(File file) {
+        State st = null;
+        if (file.isFile()) {
+            try {
+                st = JSON.readValue(file, State.class);
+            } catch (Exception ex) {
+                System.out.println("[WARN] build cache unreadable, starting empty: " + file.getAbsolutePath() + " (" + ex.getMessage() + ")");
+            }
+        }
+        if (st == null) st = new State();
+        if (st.getEntries() == null) st.setEntries(new LinkedHashMap<String, Entry>());
+        if (st.getInstalled() == null) st.setInstalled(new LinkedHashMap<String, String>());
+        return new BuildStateCache(file, st);
+    }
+
+    public static String key(String repoPath, List<String> workDirs, List<String> goals) {
+        return repoPath + "|" + String.join(",", workDirs) + "|" + String.join(" ", goals);
+    }
+
+    /**
+     * @return the previous entry when fingerprint matches and all recorded artifacts still exist, else null
+     */
+    public synchronized Entry lookup(String key, String fingerprint, String installId) {
+        Entry e = state.getEntries().get(key);
+        if (e == null || fingerprint == null || !fingerprint.equals(e.getFingerprint())) return null;
+
+        if (installId != null && !fingerprint.equals(state.getInstalled().get(installId))) return null;
+
+        if (e.getArtifacts() != null) {
+            for (int i = 0; i < e.getArtifacts().size(); i++) {
+                if (!new File(e.getArtifacts().get(i)).isFile()) return null;
+            }
+        }
+        return e;
+    }
+
+    /**
+     * Last successful build of the key, whatever its fingerprint; null when unknown, its outputs are gone
+     * or another build installed the project since.
+     */
+    public synchronized Entry latest(String key, String installId) {
+        Entry e = state.getEntries().get(key);
+        return e == null ? null : lookup(key, e.getFingerprint(), installId);
+    }
+
+    public synchronized void record(String key, Entry entry, String installId) throws Exception {
+        state.getEntries().put(key, entry);
+        if (installId != null) {
+            state.getInstalled().put(installId, entry.getFingerprint());
+        }
+        save();
+    }
+
+    /**
+     * Forget a key (e.g. the build failed half-way and outputs are no longer trustworthy).
+     */
+    public synchronized void invalidate(String key) throws Exception {
+        if (state.getEntries().remove(key) != null) {
+            save();
+        }
+    }
+
+    private void save() throws Exception {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null) Files.createDirectories(dir.toPath());
+
+        File tmp = new File(dir, file.getName() + ".tmp");
+        JSON.writerWithDefaultPrettyPrinter().writeValue(tmp, state);
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (java.nio.file.AtomicMoveNotSupportedException ex) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public static String sha256(String text) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] d = md.digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(d.length * 2);
+            for (int i = 0; i < d.length; i++) {
+                sb.append(String.format("%02x", d[i] & 0xff));
+            }
+            return sb.toString();
+        } catch (Exception ex) {
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+
+    /**
+     * fingerprint = hash(HEAD, command, upstream fingerprints); null if any input is unknown.
+     */
+    public static String fingerprint(String head, List<String> command, List<String> upstream) {
+        if (head == null || upstream == null) return null;
+        List<String> parts = new ArrayList<String>();
+        parts.add(head);
+        parts.add(String.join(" ", command));
+        for (int i = 0; i < upstream.size(); i++) {
+            if (upstream.get(i) == null) return null;
+            parts.add(upstream.get(i));
+        }
+        return sha256(String.join("\n", parts));
+    }
+}
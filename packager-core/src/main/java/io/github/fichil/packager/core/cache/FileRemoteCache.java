@@ -0,0 +1,69 @@
+package io.github.fichil.packager.core.cache;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Remote cache in a directory: {@code <root>/<key[0..2]>/<key>.zip}. Put on a network share to use it from
+ * several machines; writes go to a temp file and are renamed, readers never see half an entry.
+ */
+public class FileRemoteCache implements RemoteCache {
+
+    private final File root;
+
+    public FileRemoteCache(File root) {
+        this.root = root.getAbsoluteFile();
+    }
+
+    @Override
+    public boolean get(String key, File dest) throws Exception {
+        File f = file(key);
+        if (!f.isFile()) return false;
+        Files.copy(f.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+
+    @Override
+    public void put(String key, File src) throws Exception {
+        try (InputStream in = Files.newInputStream(src.toPath())) {
+            put(key, in);
+        }
+    }
+
+    public void put(String key, InputStream in) throws Exception {
+        File f = file(key);
+        Files.createDirectories(f.getParentFile().toPath());
+        File tmp = new File(f.getParentFile(), "." + f.getName() + ".tmp-" + Long.toHexString(System.nanoTime()));
+        try {
+            Files.copy(in, tmp.toPath());
+            try {
+                Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (java.nio.file.AtomicMoveNotSupportedException ex) {
+                Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    /**
+     * Location of the entry; also used by {@link RemoteCacheServer}.
+     */
+    public File file(String key) {
+        checkKey(key);
+        return new File(new File(root, key.substring(0, 2)), key + ".zip");
+    }
+
+    @Override
+    public String describe() {
+        return root.getPath();
+    }
+
+    static void checkKey(String key) {
+        if (key == null || key.length() < 3 || !key.matches("[0-9a-f]+")) {
+            throw new IllegalArgumentException("Invalid cache key: " + key);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package io.github.fichil.packager.core.cache;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Remote cache over HTTP: GET/PUT {@code <baseUrl>/<key>.zip}, 404 = miss.
+ * Works with {@link RemoteCacheServer} (packager --serve-cache) or any server accepting PUT (nginx dav, ...);
+ * uploads carry "Authorization: Bearer &lt;token&gt;" when a token is set.
+ */
+public class HttpRemoteCache implements RemoteCache {
+
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 120000;
+
+    private final String baseUrl;
+    private final String token;
+
+    /**
+     * @param token shared secret of the server, null = send none
+     */
+    public HttpRemoteCache(String baseUrl, String token) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.token = token;
+    }
+
+    @Override
+    public boolean get(String key, File dest) throws Exception {
+        HttpURLConnection conn = open(key, "GET");
+        int code = conn.getResponseCode();
+        if (code != HttpURLConnection.HTTP_OK) {
+            drainError(conn);
+            if (code == HttpURLConnection.HTTP_NOT_FOUND) return false;
+            throw new IllegalStateException("GET " + conn.getURL() + " -> HTTP " + code);
+        }
+        try (InputStream in = conn.getInputStream()) {
+            Files.copy(in, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        long expected = conn.getContentLengthLong();
+        if (expected >= 0 && dest.length() != expected) {
+            throw new IllegalStateException("GET " + conn.getURL() + " truncated: " + dest.length() + "/" + expected + " bytes");
+        }
+        return true;
+    }
+
+    @Override
+    public void put(String key, File src) throws Exception {
+        try {
+            putOnce(key, src);
+        } catch (java.io.IOException ex) {
+            // keep-alive 连接可能已被服务端关掉，流式 PUT 不会自动重试：换新连接再试一次
+            putOnce(key, src);
+        }
+    }
+
+    private void putOnce(String key, File src) throws Exception {
+        HttpURLConnection conn = open(key, "PUT");
+        conn.setDoOutput(true);
+        conn.setFixedLengthStreamingMode(src.length());
+        conn.setRequestProperty("Content-Type", "application/zip");
+        if (token != null) conn.setRequestProperty("Authorization", "Bearer " + token);
+        try (OutputStream out = conn.getOutputStream()) {
+            Files.copy(src.toPath(), out);
+        }
+        int code = conn.getResponseCode();
+        if (code < 200 || code >= 300) {
+            drainError(conn);
+            if (code == HttpURLConnection.HTTP_UNAUTHORIZED || code == HttpURLConnection.HTTP_FORBIDDEN) {
+                throw new IllegalStateException("PUT " + conn.getURL() + " -> HTTP " + code
+                        + " (server is read-only or cache.remoteToken does not match)");
+            }
+            throw new IllegalStateException("PUT " + conn.getURL() + " -> HTTP " + code);
+        }
+        conn.getInputStream().close();
+    }
+
+    // 读完错误响应，连接才能复用（keep-alive）
+    private static void drainError(HttpURLConnection conn) {
+        InputStream err = conn.getErrorStream();
+        if (err == null) return;
+        try {
+            err.readAllBytes();
+            err.close();
+        } catch (java.io.IOException ignore) {
+            // 连接不能复用而已
+        }
+    }
+
+    @Override
+    public String describe() {
+        return baseUrl;
+    }
+
+    private HttpURLConnection open(String key, String method) throws Exception {
+        FileRemoteCache.checkKey(key);
+        HttpURLConnection conn = (HttpURLConnection) new URL(baseUrl + "/" + key + ".zip").openConnection();
+        conn.setRequestMethod(method);
+        conn.setConnectTimeout(CONNECT_TIMEOUT);
+        conn.setReadTimeout(READ_TIMEOUT);
+        conn.setUseCaches(false);
+        return conn;
+    }
+}
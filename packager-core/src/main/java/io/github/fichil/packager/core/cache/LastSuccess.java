@@ -0,0 +1,77 @@
+package io.github.fichil.packager.core.cache;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * git HEAD of every working copy at the end of the last successful run of each job
+ * (job -> working copy path -> commit). Baseline of --since-last-success.
+ *
+ * Stored as one small JSON file, rewritten atomically after every successful job.
+ */
+public class LastSuccess {
+
+    public static class State {
+        private Map<String, Map<String, String>> jobs = new LinkedHashMap<String, Map<String, String>>();
+
+        public Map<String, Map<String, String>> getJobs() { return jobs; }
+        public void setJobs(Map<String, Map<String, String>> jobs) { this.jobs = jobs; }
+    }
+
+    private static final ObjectMapper JSON = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final File file;
+    private final State state;
+
+    private LastSuccess(File file, State state) {
+        this.file = file;
+        this.state = state;
+    }
+
+    /**
+     * Load the file; a missing or unreadable file starts empty (every repo counts as changed).
+     */
+    public static LastSuccess open(File file) {
+        State st = null;
+        if (file.isFile()) {
+            try {
+                st = JSON.readValue(file, State.class);
+            } catch (Exception ex) {
+                System.out.println("[WARN] last-success state unreadable, starting empty: " + file.getAbsolutePath() + " (" + ex.getMessage() + ")");
+            }
+        }
+        if (st == null) st = new State();
+        if (st.getJobs() == null) st.setJobs(new LinkedHashMap<String, Map<String, String>>());
+        return new LastSuccess(file, st);
+    }
+
+    /**
+     * @return working copy path -> HEAD of the job's last successful run, empty when it never succeeded
+     */
+    public synchronized Map<String, String> heads(String job) {
+        Map<String, String> heads = state.getJobs().get(job);
+        return heads == null ? new LinkedHashMap<String, String>() : new LinkedHashMap<String, String>(heads);
+    }
+
+    public synchronized void record(String job, Map<String, String> heads) throws Exception {
+        state.getJobs().put(job, new LinkedHashMap<String, String>(heads));
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null) Files.createDirectories(dir.toPath());
+
+        File tmp = new File(dir, file.getName() + ".tmp");
+        JSON.writerWithDefaultPrettyPrinter().writeValue(tmp, state);
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (java.nio.file.AtomicMoveNotSupportedException ex) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package io.github.fichil.packager.core.cache;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Build outputs shared between machines through a {@link RemoteCache}.
+ * - key: project (gitUrl) + commit + modules + maven arguments + upstream keys; no local paths, so every
+ *   agent building the same commit the same way computes the same key
+ * - entry: one zip with the artifacts (relative to the repo) and, for install/deploy, the files installed
+ *   into the local maven repository (relative to it), plus {@value #ENTRY_MANIFEST}
+ * - a hit is unpacked in place of running maven; any remote error only logs a warning and builds
+ */
+public class RemoteBuildCache {
+
+    static final String ENTRY_MANIFEST = "cache-entry.json";
+    private static final String ARTIFACTS = "artifacts/";
+    private static final String M2 = "m2/";
+    private static final int BUFFER = 1024 * 1024;
+
+    private static final ObjectMapper JSON = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    public static class Manifest {
+        private String key;
+        private long createdAt;
+        private String host;
+        private List<String> artifacts = new ArrayList<String>();
+        private List<String> installed = new ArrayList<String>();
+
+        public String getKey() { return key; }
+        public void setKey(String key) { this.key = key; }
+
+        public long getCreatedAt() { return createdAt; }
+        public void setCreatedAt(long createdAt) { this.createdAt = createdAt; }
+
+        /** machine that built the entry */
+        public String getHost() { return host; }
+        public void setHost(String host) { this.host = host; }
+
+        public List<String> getArtifacts() { return artifacts; }
+        public void setArtifacts(List<String> artifacts) { this.artifacts = artifacts; }
+
+        public List<String> getInstalled() { return installed; }
+        public void setInstalled(List<String> installed) { this.installed = installed; }
+    }
+
+    private final RemoteCache remote;
+    private final boolean push;
+    private final File localRepo;
+    private final File tmpDir;
+
+    /**
+     * @param push      upload successful builds (false = read only, e.g. developer machines)
+     * @param localRepo local maven repository install outputs are restored into
+     * @param tmpDir    where downloads / uploads are staged
+     */
+    public RemoteBuildCache(RemoteCache remote, boolean push, File localRepo, File tmpDir) {
+        this.remote = remote;
+        this.push = push;
+        this.localRepo = localRepo.getAbsoluteFile();
+        this.tmpDir = tmpDir;
+    }
+
+    public boolean isPush() { return push; }
+
+    public File getLocalRepo() { return localRepo; }
+
+    public String describe() { return remote.describe(); }
+
+    /**
+     * @return null when any input is unknown (dirty tree, upstream not cacheable)
+     */
+    public static String key(String project, List<String> workDirs, List<String> mavenArgs, String head, List<String> upstream) {
+        if (project == null || head == null || upstream == null) return null;
+        List<String> parts = new ArrayList<String>();
+        parts.add(project);
+        parts.add(head);
+        parts.add(String.join(",", workDirs));
+        parts.add(String.join(" ", mavenArgs));
+        for (int i = 0; i < upstream.size(); i++) {
+            if (upstream.get(i) == null) return null;
+            parts.add(upstream.get(i));
+        }
+        return BuildStateCache.sha256(String.join("\n", parts));
+    }
+
+    /**
+     * Unpack the entry into the repo and the local maven repository.
+     *
+     * @return the restored artifacts, null on a miss or when the cache can't be read
+     */
+    public List<File> restore(String key, File repoDir) {
+        File tmp = null;
+        try {
+            Files.createDirectories(tmpDir.toPath());
+            tmp = File.createTempFile("remote-", ".zip", tmpDir);
+            if (!remote.get(key, tmp)) return null;
+
+            List<File> artifacts = new ArrayList<File>();
+            try (ZipFile zip = new ZipFile(tmp)) {
+                Enumeration<? extends ZipEntry> en = zip.entries();
+                while (en.hasMoreElements()) {
+                    ZipEntry e = en.nextElement();
+                    if (e.isDirectory() || ENTRY_MANIFEST.equals(e.getName())) continue;
+                    File dest;
+                    if (e.getName().startsWith(ARTIFACTS)) {
+                        dest = inside(repoDir, e.getName().substring(ARTIFACTS.length()));
+                        artifacts.add(dest);
+                    } else if (e.getName().startsWith(M2)) {
+                        dest = inside(localRepo, e.getName().substring(M2.length()));
+                    } else {
+                        continue;
+                    }
+                    try (InputStream in = zip.getInputStream(e)) {
+                        extract(in, dest, e.getTime());
+                    }
+                }
+            }
+            return artifacts;
+        } catch (Exception ex) {
+            System.out.println("[WARN] remote cache " + remote.describe() + " not usable, building: " + ex.getMessage());
+            return null;
+        } finally {
+            if (tmp != null) tmp.delete();
+        }
+    }
+
+    /**
+     * Upload the outputs of a successful build. Skipped (with a warning) when an artifact lives outside the repo
+     * or an installed file outside the local repository, the entry could not be restored completely.
+     */
+    public boolean push(String key, File repoDir, List<File> artifacts, List<File> installed) {
+        if (!push) return false;
+        File tmp = null;
+        try {
+            Manifest m = new Manifest();
+            m.setKey(key);
+            m.setCreatedAt(System.currentTimeMillis());
+            m.setHost(java.net.InetAddress.getLocalHost().getHostName());
+            for (int i = 0; i < artifacts.size(); i++) {
+                String rel = relative(repoDir, artifacts.get(i));
+                if (rel == null) {
+                    System.out.println("[WARN] remote cache: " + artifacts.get(i).getAbsolutePath() + " is outside the repo, not uploaded");
+                    return false;
+                }
+                m.getArtifacts().add(rel);
+            }
+            for (int i = 0; i < installed.size(); i++) {
+                String rel = relative(localRepo, installed.get(i));
+                if (rel == null) {
+                    System.out.println("[WARN] remote cache: " + installed.get(i).getAbsolutePath() + " is outside the local repository, not uploaded");
+                    return false;
+                }
+                m.getInstalled().add(rel);
+            }
+
+            Files.createDirectories(tmpDir.toPath());
+            tmp = File.createTempFile("remote-", ".zip", tmpDir);
+            try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), BUFFER))) {
+                zip.putNextEntry(new ZipEntry(ENTRY_MANIFEST));
+                zip.write(JSON.writeValueAsBytes(m));
+                zip.closeEntry();
+                for (int i = 0; i < artifacts.size(); i++) {
+                    stored(zip, ARTIFACTS + m.getArtifacts().get(i), artifacts.get(i));
+                }
+                for (int i = 0; i < installed.size(); i++) {
+                    stored(zip, M2 + m.getInstalled().get(i), installed.get(i));
+                }
+            }
+            remote.put(key, tmp);
+            System.out.println("[INFO] remote cache: uploaded " + (artifacts.size() + installed.size()) + " file(s), key=" + key.substring(0, 12));
+            return true;
+        } catch (Exception ex) {
+            System.out.println("[WARN] remote cache upload to " + remote.describe() + " failed: " + ex.getMessage());
+            return false;
+        } finally {
+            if (tmp != null) tmp.delete();
+        }
+    }
+
+    // war/jar 已压缩：原样存储
+    private static void stored(ZipOutputStream zip, String name, File f) throws Exception {
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[BUFFER];
+        try (InputStream in = Files.newInputStream(f.toPath())) {
+            int n;
+            while ((n = in.read(buf)) > 0) crc.update(buf, 0, n);
+        }
+        ZipEntry e = new ZipEntry(name);
+        e.setMethod(ZipEntry.STORED);
+        e.setSize(f.length());
+        e.setCompressedSize(f.length());
+        e.setCrc(crc.getValue());
+        e.setTime(f.lastModified());
+        zip.putNextEntry(e);
+        Files.copy(f.toPath(), zip);
+        zip.closeEntry();
+    }
+
+    private static void extract(InputStream in, File dest, long time) throws Exception {
+        File dir = dest.getParentFile();
+        Files.createDirectories(dir.toPath());
+        File tmp = new File(dir, "." + dest.getName() + ".tmp-" + Long.toHexString(System.nanoTime()));
+        try {
+            Files.copy(in, tmp.toPath());
+            // 保持原来的修改时间
+            if (time > 0) tmp.setLastModified(time);
+            try {
+                Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (java.nio.file.AtomicMoveNotSupportedException ex) {
+                Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    // zip 里的路径不能跳出目标目录
+    private static File inside(File base, String rel) {
+        Path b = base.getAbsoluteFile().toPath().normalize();
+        Path p = b.resolve(rel).normalize();
+        if (!p.startsWith(b) || p.equals(b)) {
+            throw new IllegalStateException("Invalid path in cache entry: " + rel);
+        }
+        return p.toFile();
+    }
+
+    private static String relative(File base, File f) {
+        Path b = base.getAbsoluteFile().toPath().normalize();
+        Path p = f.getAbsoluteFile().toPath().normalize();
+        if (!p.startsWith(b)) return null;
+        return b.relativize(p).toString().replace('\\', '/');
+    }
+}
@@ -0,0 +1,33 @@
+package io.github.fichil.packager.core.cache;
+
+import java.io.File;
+
+/**
+ * Blob storage shared between build machines, addressed by key (hex string).
+ * Implementations: a directory (local disk / network share) or an HTTP server answering GET/PUT.
+ */
+public interface RemoteCache {
+
+    /**
+     * Download the blob into {@code dest}.
+     *
+     * @return false when the key is not in the cache
+     */
+    boolean get(String key, File dest) throws Exception;
+
+    void put(String key, File src) throws Exception;
+
+    String describe();
+
+    /**
+     * "http(s)://host:port/path" -> {@link HttpRemoteCache}, anything else is a directory ({@link FileRemoteCache}).
+     *
+     * @param token shared secret sent with HTTP uploads, null = none
+     */
+    static RemoteCache of(String location, String token) {
+        String l = location.trim();
+        if (l.startsWith("http://") || l.startsWith("https://")) return new HttpRemoteCache(l, token);
+        if (l.startsWith("file:")) l = l.substring("file:".length());
+        return new FileRemoteCache(new File(l));
+    }
+}
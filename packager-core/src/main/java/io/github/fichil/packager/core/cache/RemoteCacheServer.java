@@ -0,0 +1,134 @@
+package io.github.fichil.packager.core.cache;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.concurrent.Executors;
+
+/**
+ * Minimal HTTP front of a {@link FileRemoteCache}: GET/HEAD/PUT /&lt;key&gt;.zip.
+ * Enough for a few build agents on the LAN or a local test.
+ * - listens on loopback unless a bind address is given
+ * - PUT needs "Authorization: Bearer &lt;token&gt;"; without a token the server is read-only
+ */
+public class RemoteCacheServer {
+
+    private final FileRemoteCache store;
+    private final byte[] token;
+    private HttpServer server;
+
+    /**
+     * @param token shared secret required for uploads, null = read-only
+     */
+    public RemoteCacheServer(File dir, String token) {
+        this.store = new FileRemoteCache(dir);
+        this.token = token == null ? null : token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param bind address to listen on (e.g. 0.0.0.0 for every interface), null = loopback only
+     */
+    public void start(String bind, int port) throws Exception {
+        InetAddress addr = bind == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bind);
+        server = HttpServer.create(new InetSocketAddress(addr, port), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange ex) {
+                try {
+                    serve(ex);
+                } catch (Exception e) {
+                    System.out.println("[WARN] cache server: " + ex.getRequestMethod() + " " + ex.getRequestURI() + ": " + e.getMessage());
+                    try {
+                        ex.sendResponseHeaders(500, -1);
+                    } catch (Exception ignore) {
+                        // 响应头已发出
+                    }
+                } finally {
+                    ex.close();
+                }
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.start();
+        System.out.println("[INFO] cache server on " + addr.getHostAddress() + ":" + server.getAddress().getPort()
+                + ", dir=" + store.describe() + (token == null ? ", read-only (no cache.remoteToken)" : ""));
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        if (server != null) server.stop(0);
+    }
+
+    private void serve(HttpExchange ex) throws Exception {
+        String method = ex.getRequestMethod();
+        if (!"PUT".equals(method)) {
+            // 请求体没读到 EOF 时 HttpServer 会在响应后关掉连接，客户端的 keep-alive 连接就成了死连接
+            ex.getRequestBody().close();
+        }
+        String path = ex.getRequestURI().getPath();
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        if (!name.endsWith(".zip")) {
+            ex.sendResponseHeaders(404, -1);
+            return;
+        }
+        String key = name.substring(0, name.length() - ".zip".length());
+        File f;
+        try {
+            f = store.file(key);
+        } catch (IllegalArgumentException bad) {
+            ex.sendResponseHeaders(400, -1);
+            return;
+        }
+
+        if ("GET".equals(method) || "HEAD".equals(method)) {
+            if (!f.isFile()) {
+                ex.sendResponseHeaders(404, -1);
+                return;
+            }
+            ex.getResponseHeaders().set("Content-Type", "application/zip");
+            if ("HEAD".equals(method)) {
+                ex.getResponseHeaders().set("Content-Length", String.valueOf(f.length()));
+                ex.sendResponseHeaders(200, -1);
+                return;
+            }
+            ex.sendResponseHeaders(200, f.length());
+            try (OutputStream out = ex.getResponseBody()) {
+                Files.copy(f.toPath(), out);
+            }
+        } else if ("PUT".equals(method)) {
+            if (token == null || !authorized(ex.getRequestHeaders().getFirst("Authorization"))) {
+                System.out.println("[WARN] cache server: rejected PUT " + name + " from " + ex.getRemoteAddress());
+                // 读完（丢弃）再拒绝：客户端写完请求体才读响应，否则只会看到断开的连接
+                try (InputStream in = ex.getRequestBody()) {
+                    in.transferTo(OutputStream.nullOutputStream());
+                }
+                ex.sendResponseHeaders(token == null ? 403 : 401, -1);
+                return;
+            }
+            try (InputStream in = ex.getRequestBody()) {
+                store.put(key, in);
+            }
+            ex.sendResponseHeaders(201, -1);
+        } else {
+            ex.sendResponseHeaders(405, -1);
+        }
+    }
+
+    private boolean authorized(String header) {
+        if (header == null || !header.startsWith("Bearer ")) return false;
+        // 定长比较，不从响应时间泄露 token
+        return MessageDigest.isEqual(token, header.substring("Bearer ".length()).trim().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -1,28 +1,75 @@
 package io.github.fichil.packager.core.config;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
-
 import java.io.File;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CompositeConfigLoader {
 
     public static class NamedJob {
         private final String displayName; // apps:xxx
         private final String jobName;     // xxx
-        private final PackagerConfig mergedConfig;
-        private final PackagerConfig.JobConfig job;
+        private PackagerConfig mergedConfig;
+        private PackagerConfig.JobConfig job;
+
+        // matrix/template：选中（第一次取 config/job）时才展开
+        private final PackagerConfig includeConfig;
+        private final PackagerConfig.JobConfig definition;
+        private final Map<String, String> matrixVars;
 
         public NamedJob(String displayName, String jobName, PackagerConfig mergedConfig, PackagerConfig.JobConfig job) {
             this.displayName = displayName;
             this.jobName = jobName;
             this.mergedConfig = mergedConfig;
             this.job = job;
+            this.includeConfig = null;
+            this.definition = null;
+            this.matrixVars = null;
+        }
+
+        NamedJob(String displayName, String jobName, PackagerConfig includeConfig, PackagerConfig.JobConfig definition,
+                 Map<String, String> matrixVars) {
+            this.displayName = displayName;
+            this.jobName = jobName;
+            this.includeConfig = includeConfig;
+            this.definition = definition;
+            this.matrixVars = matrixVars;
+        }
+
+        private synchronized void expand() {
+            if (job != null) return;
+            if (matrixVars == null || matrixVars.isEmpty()) {
+                mergedConfig = includeConfig;
+            } else {
+                // 同一 include 的配置 + 这组 matrix 变量
+                PackagerConfig c = new PackagerConfig();
+                c.setMaven(includeConfig.getMaven());
+                c.setGit(includeConfig.getGit());
+                c.setCache(includeConfig.getCache());
+                c.setStore(includeConfig.getStore());
+                c.setTemplates(includeConfig.getTemplates());
+                c.setJobs(includeConfig.getJobs());
+                Map<String, String> vars = new HashMap<String, String>();
+                if (includeConfig.getVars() != null) vars.putAll(includeConfig.getVars());
+                vars.putAll(matrixVars);
+                c.setVars(vars);
+                mergedConfig = c;
+            }
+            job = JobTemplates.apply(displayName, definition, includeConfig.getTemplates(),
+                    matrixVars == null || matrixVars.isEmpty() ? null : mergedConfig.resolver());
         }
 
         public String getDisplayName() {
@@ -34,66 +81,91 @@ public class CompositeConfigLoader {
         }
 
         public PackagerConfig getMergedConfig() {
+            expand();
             return mergedConfig;
         }
 
         public PackagerConfig.JobConfig getJob() {
+            expand();
             return job;
         }
     }
 
     /**
      * Load package.yml, then load includes (apps.yml/openapi.yml ...),
-     * merge global maven/vars into each included config,
+     * merge global maven/git/cache/vars into each included config,
      * then flatten jobs into a single list.
+     * The parsed files are cached in {@link ConfigCache#defaultDir()}.
      */
     public static List<NamedJob> loadFromPackageYml(File packageYml) throws Exception {
+        return loadFromPackageYml(packageYml, new ConfigCache(ConfigCache.defaultDir()));
+    }
+
+    /**
+     * @param cache parsed-config cache; null = always parse the YAML files
+     */
+    public static List<NamedJob> loadFromPackageYml(File packageYml, ConfigCache cache) throws Exception {
+        return loadFromPackageYml(packageYml, cache, null);
+    }
+
+    /**
+     * @param sources receives the files the jobs came from (package.yml first), e.g. to notice edits
+     *                with {@link ConfigCache#unchanged}; may be null
+     */
+    public static List<NamedJob> loadFromPackageYml(File packageYml, ConfigCache cache, List<ConfigCache.Source> sources) throws Exception {
         if (packageYml == null || !packageYml.exists() || !packageYml.isFile()) {
             throw new IllegalArgumentException("package.yml not found: " + (packageYml == null ? "null" : packageYml.getAbsolutePath()));
         }
 
-        ObjectMapper om = new ObjectMapper(new YAMLFactory());
-        PackageConfig pkg = om.readValue(packageYml, PackageConfig.class);
-
-        if (pkg.getIncludes() == null || pkg.getIncludes().isEmpty()) {
-            throw new IllegalArgumentException("package.yml must define includes");
+        ConfigCache.Model model = cache == null ? null : cache.load(packageYml);
+        if (model == null) {
+            model = parse(packageYml);
+            if (cache != null) cache.save(packageYml, model);
         }
+        PackageConfig pkg = model.getPackageConfig();
+        if (sources != null) sources.addAll(model.getSources());
 
         // global defaults
         PackagerConfig.GlobalMaven globalMaven = pkg.getMaven();
+        PackagerConfig.GlobalGit globalGit = pkg.getGit();
+        PackagerConfig.GlobalCache globalCache = pkg.getCache();
+        PackagerConfig.GlobalStore globalStore = pkg.getStore();
         Map<String, String> globalVars = pkg.getVars() == null
                 ? new HashMap<String, String>()
                 : new HashMap<String, String>(pkg.getVars());
 
         List<NamedJob> out = new ArrayList<NamedJob>();
 
-        File baseDir = packageYml.getParentFile();
-        ConfigLoader cfgLoader = new ConfigLoader();
-
         for (int i = 0; i < pkg.getIncludes().size(); i++) {
             PackageConfig.IncludeConfig inc = pkg.getIncludes().get(i);
-
-            String incName = inc.getName();
-            String incPath = inc.getPath();
-
-            if (incPath == null || incPath.trim().isEmpty()) {
+            PackagerConfig child = model.getIncludes().get(i);
+            if (child == null) {
                 continue;
             }
 
-            File incFile = baseDir == null ? new File(incPath) : new File(baseDir, incPath);
-            PackagerConfig child = cfgLoader.load(incFile);
+            String incName = inc.getName();
+            File incFile = includeFile(packageYml, inc);
 
-            // merge config: inherit global maven/vars when child missing
+            // merge config: inherit global maven/git/cache/store/vars when child missing
             PackagerConfig merged = new PackagerConfig();
 
             PackagerConfig.GlobalMaven childMaven = child.getMaven();
             merged.setMaven(childMaven != null ? childMaven : globalMaven);
+            merged.setGit(child.getGit() != null ? child.getGit() : globalGit);
+            merged.setCache(child.getCache() != null ? child.getCache() : globalCache);
+            merged.setStore(child.getStore() != null ? child.getStore() : globalStore);
+            merged.setTemplates(child.getTemplates());
 
             Map<String, String> mergedVars = new HashMap<String, String>(globalVars);
             if (child.getVars() != null) {
                 mergedVars.putAll(child.getVars());
             }
             merged.setVars(mergedVars);
+            try {
+                merged.resolver(); // vars 有环/引用未定义的变量：加载时就报错
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException(ex.getMessage() + " (include=" + incFile.getPath() + ")", ex);
+            }
 
             Map<String, PackagerConfig.JobConfig> childJobs = child.getJobs();
             if (childJobs == null) {
@@ -106,20 +178,157 @@ public class CompositeConfigLoader {
             }
 
             for (Map.Entry<String, PackagerConfig.JobConfig> e : merged.getJobs().entrySet()) {
-                String jobName = e.getKey();
-                PackagerConfig.JobConfig job = e.getValue();
-
-                String display;
-                if (incName == null || incName.trim().isEmpty()) {
-                    display = jobName;
-                } else {
-                    display = incName + ":" + jobName;
+                List<Map<String, String>> combos = JobTemplates.combinations(e.getKey(), e.getValue());
+                if (combos.isEmpty()) {
+                    out.add(new NamedJob(displayName(incName, e.getKey()), e.getKey(), merged, e.getValue(), null));
+                    continue;
+                }
+                // matrix：这里只算出名字
+                for (int k = 0; k < combos.size(); k++) {
+                    String jobName = JobTemplates.name(e.getKey(), combos.get(k));
+                    out.add(new NamedJob(displayName(incName, jobName), jobName, merged, e.getValue(), combos.get(k)));
                 }
-
-                out.add(new NamedJob(display, jobName, merged, job));
             }
         }
 
+        Set<String> names = new HashSet<String>();
+        for (int i = 0; i < out.size(); i++) {
+            if (!names.add(out.get(i).getDisplayName())) {
+                throw new IllegalArgumentException("Duplicate job name: " + out.get(i).getDisplayName());
+            }
+        }
         return out;
     }
+
+    /**
+     * Read package.yml and its includes; includes are parsed at the same time.
+     */
+    static ConfigCache.Model parse(File packageYml) throws Exception {
+        byte[] bytes = Files.readAllBytes(packageYml.toPath());
+        PackageConfig pkg = ConfigLoader.yaml().readValue(bytes, PackageConfig.class);
+
+        if (pkg.getIncludes() == null || pkg.getIncludes().isEmpty()) {
+            throw new IllegalArgumentException("package.yml must define includes");
+        }
+
+        List<ConfigCache.Source> sources = new ArrayList<ConfigCache.Source>();
+        sources.add(ConfigCache.source(packageYml, bytes));
+
+        int n = pkg.getIncludes().size();
+        List<File> files = new ArrayList<File>(n);
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            File f = includeFile(packageYml, pkg.getIncludes().get(i));
+            files.add(f);
+            if (f != null) count++;
+        }
+
+        List<PackagerConfig> includes = new ArrayList<PackagerConfig>(n);
+        if (count <= 1) {
+            for (int i = 0; i < n; i++) {
+                includes.add(files.get(i) == null ? null : parseInclude(files.get(i), sources));
+            }
+        } else {
+            int threads = Math.min(count, Runtime.getRuntime().availableProcessors());
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads), threadFactory());
+            try {
+                List<Future<Parsed>> futures = new ArrayList<Future<Parsed>>(n);
+                for (int i = 0; i < n; i++) {
+                    final File f = files.get(i);
+                    futures.add(f == null ? null : pool.submit(new Callable<Parsed>() {
+                        @Override
+                        public Parsed call() throws Exception {
+                            byte[] b = readInclude(f);
+                            return new Parsed(parseInclude(f, b), ConfigCache.source(f, b));
+                        }
+                    }));
+                }
+                // 按 includes 的顺序收集：报错、job 顺序都和串行解析一样
+                for (int i = 0; i < n; i++) {
+                    if (futures.get(i) == null) {
+                        includes.add(null);
+                        continue;
+                    }
+                    Parsed p;
+                    try {
+                        p = futures.get(i).get();
+                    } catch (ExecutionException ex) {
+                        if (ex.getCause() instanceof Exception) throw (Exception) ex.getCause();
+                        throw ex;
+                    }
+                    includes.add(p.config);
+                    sources.add(p.source);
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        ConfigCache.Model m = new ConfigCache.Model();
+        m.setSources(sources);
+        m.setPackageConfig(pkg);
+        m.setIncludes(includes);
+        return m;
+    }
+
+    private static PackagerConfig parseInclude(File incFile, List<ConfigCache.Source> sources) throws Exception {
+        byte[] b = readInclude(incFile);
+        PackagerConfig c = parseInclude(incFile, b);
+        sources.add(ConfigCache.source(incFile, b));
+        return c;
+    }
+
+    private static PackagerConfig parseInclude(File incFile, byte[] content) {
+        try {
+            return ConfigLoader.yaml().readValue(content, PackagerConfig.class);
+        } catch (Exception ex) {
+            throw new IllegalArgumentException(ex.getMessage() + " (include=" + incFile.getPath() + ")", ex);
+        }
+    }
+
+    private static byte[] readInclude(File incFile) throws Exception {
+        if (!incFile.isFile()) {
+            throw new IllegalArgumentException("Include file not found: " + incFile.getAbsolutePath());
+        }
+        return Files.readAllBytes(incFile.toPath());
+    }
+
+    // null: 没写 path 的 include 条目（跳过）
+    private static File includeFile(File packageYml, PackageConfig.IncludeConfig inc) {
+        String incPath = inc.getPath();
+        if (incPath == null || incPath.trim().isEmpty()) {
+            return null;
+        }
+        File baseDir = packageYml.getAbsoluteFile().getParentFile();
+        return baseDir == null ? new File(incPath) : new File(baseDir, incPath);
+    }
+
+    private static ThreadFactory threadFactory() {
+        final AtomicInteger seq = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "packager-config-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    private static final class Parsed {
+        final PackagerConfig config;
+        final ConfigCache.Source source;
+
+        Parsed(PackagerConfig config, ConfigCache.Source source) {
+            this.config = config;
+            this.source = source;
+        }
+    }
+
+    private static String displayName(String incName, String jobName) {
+        if (incName == null || incName.trim().isEmpty()) {
+            return jobName;
+        }
+        return incName + ":" + jobName;
+    }
 }
@@ -0,0 +1,200 @@
+package io.github.fichil.packager.core.config;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * package.yml + its includes as parsed objects, stored as JSON so the next start skips YAML parsing
+ * (scripts calling -job in a loop, --list-jobs).
+ * - one file per package.yml (by absolute path) under ~/.packager/config-cache
+ * - valid while every source file keeps its mtime+size, or else its sha256 (touched, not edited),
+ *   and the packager build is the same one that wrote it
+ * - a missing, unreadable or stale file is simply a miss; written atomically
+ */
+public class ConfigCache {
+
+    private static final int FORMAT = 1;
+
+    public static class Source {
+        private String path;
+        private long mtime;
+        private long size;
+        private String sha256;
+
+        public String getPath() { return path; }
+        public void setPath(String path) { this.path = path; }
+
+        public long getMtime() { return mtime; }
+        public void setMtime(long mtime) { this.mtime = mtime; }
+
+        public long getSize() { return size; }
+        public void setSize(long size) { this.size = size; }
+
+        public String getSha256() { return sha256; }
+        public void setSha256(String sha256) { this.sha256 = sha256; }
+    }
+
+    public static class Model {
+        private int format;
+        private String build;
+        private List<Source> sources;
+        private PackageConfig packageConfig;
+        private List<PackagerConfig> includes;
+
+        public int getFormat() { return format; }
+        public void setFormat(int format) { this.format = format; }
+
+        public String getBuild() { return build; }
+        public void setBuild(String build) { this.build = build; }
+
+        /** package.yml first, then every include file read */
+        public List<Source> getSources() { return sources; }
+        public void setSources(List<Source> sources) { this.sources = sources; }
+
+        public PackageConfig getPackageConfig() { return packageConfig; }
+        public void setPackageConfig(PackageConfig packageConfig) { this.packageConfig = packageConfig; }
+
+        /** same index as packageConfig.includes; null = entry without path */
+        public List<PackagerConfig> getIncludes() { return includes; }
+        public void setIncludes(List<PackagerConfig> includes) { this.includes = includes; }
+    }
+
+    private static final ObjectMapper JSON = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    private final File dir;
+
+    public ConfigCache(File dir) {
+        this.dir = dir;
+    }
+
+    public static File defaultDir() {
+        return new File(new File(System.getProperty("user.home"), ".packager"), "config-cache");
+    }
+
+    /**
+     * @return the cached model of this package.yml, or null when there is none or any source changed
+     */
+    public Model load(File packageYml) {
+        File file = fileFor(packageYml);
+        if (!file.isFile()) return null;
+
+        Model m;
+        try {
+            m = JSON.readValue(file, Model.class);
+        } catch (Exception ex) {
+            return null;
+        }
+        if (m.getFormat() != FORMAT || !build().equals(m.getBuild()) || m.getSources() == null || m.getSources().isEmpty()
+                || m.getPackageConfig() == null || m.getPackageConfig().getIncludes() == null || m.getIncludes() == null
+                || m.getIncludes().size() != m.getPackageConfig().getIncludes().size()
+                || !packageYml.getAbsolutePath().equals(m.getSources().get(0).getPath())) {
+            return null;
+        }
+
+        boolean touched = false;
+        for (int i = 0; i < m.getSources().size(); i++) {
+            Source s = m.getSources().get(i);
+            File f = new File(s.getPath());
+            if (f.lastModified() == s.getMtime() && f.length() == s.getSize()) continue;
+            // mtime 变了但内容没变（checkout/touch）：仍然命中，顺手更新记录
+            try {
+                if (!f.isFile() || !sha256(Files.readAllBytes(f.toPath())).equals(s.getSha256())) return null;
+            } catch (Exception ex) {
+                return null;
+            }
+            s.setMtime(f.lastModified());
+            s.setSize(f.length());
+            touched = true;
+        }
+        if (touched) save(packageYml, m);
+        return m;
+    }
+
+    /**
+     * Store the model; failures only print a warning (the next start parses again).
+     */
+    public void save(File packageYml, Model m) {
+        m.setFormat(FORMAT);
+        m.setBuild(build());
+        File file = fileFor(packageYml);
+        File tmp = null;
+        try {
+            Files.createDirectories(dir.toPath());
+            // 多个进程可能同时写同一个文件：各写各的临时文件
+            tmp = Files.createTempFile(dir.toPath(), file.getName(), ".tmp").toFile();
+            JSON.writeValue(tmp, m);
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (java.nio.file.AtomicMoveNotSupportedException ex) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (Exception ex) {
+            System.out.println("[WARN] config cache not written: " + file.getAbsolutePath() + " (" + ex.getMessage() + ")");
+            if (tmp != null) tmp.delete();
+        }
+    }
+
+    /**
+     * Cheap check (stat only) that none of the sources was touched since it was read.
+     */
+    public static boolean unchanged(List<Source> sources) {
+        for (int i = 0; i < sources.size(); i++) {
+            File f = new File(sources.get(i).getPath());
+            if (f.lastModified() != sources.get(i).getMtime() || f.length() != sources.get(i).getSize()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stamp of a source file read for parsing.
+     */
+    public static Source source(File f, byte[] content) {
+        Source s = new Source();
+        s.setPath(f.getAbsolutePath());
+        s.setMtime(f.lastModified());
+        s.setSize(content.length);
+        s.setSha256(sha256(content));
+        return s;
+    }
+
+    private File fileFor(File packageYml) {
+        String h = sha256(packageYml.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+        return new File(dir, h.substring(0, 16) + ".json");
+    }
+
+    // 配置模型的类可能随版本变化：换了 jar（或重新编译）就不认旧缓存
+    private static String build() {
+        try {
+            CodeSource cs = ConfigCache.class.getProtectionDomain().getCodeSource();
+            if (cs == null || cs.getLocation() == null) return "unknown";
+            File f = new File(cs.getLocation().toURI());
+            return f.getAbsolutePath() + "|" + f.lastModified() + "|" + f.length();
+        } catch (Exception ex) {
+            return "unknown";
+        }
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder sb = new StringBuilder(d.length * 2);
+            for (int i = 0; i < d.length; i++) {
+                sb.append(String.format("%02x", d[i] & 0xff));
+            }
+            return sb.toString();
+        } catch (Exception ex) {
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+}
@@ -8,7 +8,18 @@ import java.io.File;
 public class ConfigLoader {
 
     public PackagerConfig load(File yamlFile) throws Exception {
-        ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
-        return mapper.readValue(yamlFile, PackagerConfig.class);
+        return yaml().readValue(yamlFile, PackagerConfig.class);
+    }
+
+    /**
+     * Shared YAML mapper (thread-safe once configured), created on first use:
+     * a config cache hit never loads the YAML parser at all.
+     */
+    static ObjectMapper yaml() {
+        return Yaml.MAPPER;
+    }
+
+    private static final class Yaml {
+        static final ObjectMapper MAPPER = new ObjectMapper(new YAMLFactory());
     }
 }
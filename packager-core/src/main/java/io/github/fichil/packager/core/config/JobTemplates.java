@@ -0,0 +1,170 @@
+package io.github.fichil.packager.core.config;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Job matrix + repo templates of an include file.
+ * - matrix/instances: one job definition -> several named jobs, each with its own extra vars
+ * - template: a repo entry inherits the fields it does not set from templates.&lt;name&gt;
+ *
+ * Only names are computed when the config is loaded; repos are expanded when a job is selected.
+ */
+public final class JobTemplates {
+
+    private static final String REPO_VAR = "${repo}";
+
+    private JobTemplates() {}
+
+    /**
+     * Var sets of the job's matrix (cartesian product, first key outermost) followed by its instances.
+     *
+     * @return empty list when the job has neither (a plain job)
+     */
+    public static List<Map<String, String>> combinations(String jobName, PackagerConfig.JobConfig job) {
+        List<Map<String, String>> out = new ArrayList<Map<String, String>>();
+        Map<String, List<String>> matrix = job.getMatrix();
+        if (matrix != null && !matrix.isEmpty()) {
+            out.add(new LinkedHashMap<String, String>());
+            for (Map.Entry<String, List<String>> e : matrix.entrySet()) {
+                if (!jobName.contains("${" + e.getKey() + "}")) {
+                    throw new IllegalArgumentException("Job name must contain ${" + e.getKey() + "} to tell its matrix jobs apart (job=" + jobName + ")");
+                }
+                if (e.getValue() == null || e.getValue().isEmpty()) {
+                    throw new IllegalArgumentException("matrix." + e.getKey() + " has no values (job=" + jobName + ")");
+                }
+                List<Map<String, String>> next = new ArrayList<Map<String, String>>(out.size() * e.getValue().size());
+                for (int i = 0; i < out.size(); i++) {
+                    for (int k = 0; k < e.getValue().size(); k++) {
+                        Map<String, String> combo = new LinkedHashMap<String, String>(out.get(i));
+                        combo.put(e.getKey(), e.getValue().get(k));
+                        next.add(combo);
+                    }
+                }
+                out = next;
+            }
+        }
+        if (job.getInstances() != null) {
+            for (int i = 0; i < job.getInstances().size(); i++) {
+                Map<String, String> inst = job.getInstances().get(i);
+                if (inst != null && !inst.isEmpty()) out.add(new LinkedHashMap<String, String>(inst));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Job name of one combination, e.g. "all-${branch}" -> "all-Develop".
+     */
+    public static String name(String jobName, Map<String, String> combination) {
+        // 只替换名字里出现的 key；instances 的其它值可以引用 include 的 vars，这时还解析不了
+        String name = jobName;
+        for (Map.Entry<String, String> e : combination.entrySet()) {
+            name = name.replace("${" + e.getKey() + "}", e.getValue() == null ? "" : e.getValue());
+        }
+        return name;
+    }
+
+    /**
+     * Copy of the job with every templated repo entry filled in from its template.
+     * With {@code names} (a matrix job) repo names and artifacts[].repo are resolved too,
+     * so a matrix var can be part of a repo name, e.g. "chainwork-${app}-apps".
+     *
+     * @param names resolver of the matrix job's vars, null for a plain job
+     * @return the job itself when there is nothing to expand
+     */
+    public static PackagerConfig.JobConfig apply(String jobName, PackagerConfig.JobConfig job,
+                                                 Map<String, PackagerConfig.RepoConfig> templates, VarResolver names) {
+        List<PackagerConfig.RepoConfig> repos = job.getRepos();
+        if (repos == null) return job;
+
+        boolean templated = false;
+        for (int i = 0; i < repos.size() && !templated; i++) {
+            templated = repos.get(i) != null && repos.get(i).getTemplate() != null;
+        }
+        if (!templated && names == null) return job;
+
+        List<PackagerConfig.RepoConfig> expanded = new ArrayList<PackagerConfig.RepoConfig>(repos.size());
+        for (int i = 0; i < repos.size(); i++) {
+            PackagerConfig.RepoConfig r = repos.get(i);
+            if (r == null || (r.getTemplate() == null && names == null)) {
+                expanded.add(r);
+                continue;
+            }
+            PackagerConfig.RepoConfig t = null;
+            if (r.getTemplate() != null) {
+                t = templates == null ? null : templates.get(r.getTemplate());
+                if (t == null) {
+                    throw new IllegalArgumentException("Unknown repo template: " + r.getTemplate() + " (job=" + jobName + ", repo=" + r.getName() + ")");
+                }
+            }
+            expanded.add(merge(r, t == null ? new PackagerConfig.RepoConfig() : t, names));
+        }
+
+        PackagerConfig.JobConfig copy = new PackagerConfig.JobConfig();
+        copy.setRepos(expanded);
+        copy.setArtifacts(names == null ? job.getArtifacts() : artifacts(job.getArtifacts(), names));
+        copy.setParallelism(job.getParallelism());
+        return copy;
+    }
+
+    private static PackagerConfig.ArtifactsConfig artifacts(PackagerConfig.ArtifactsConfig a, VarResolver names) {
+        if (a == null || a.getFiles() == null) return a;
+        PackagerConfig.ArtifactsConfig copy = new PackagerConfig.ArtifactsConfig();
+        copy.setOutputDir(a.getOutputDir());
+        copy.setParallelism(a.getParallelism());
+        copy.setMode(a.getMode());
+        copy.setBundle(a.getBundle());
+        copy.setBundleOnly(a.getBundleOnly());
+        List<PackagerConfig.ArtifactFile> files = new ArrayList<PackagerConfig.ArtifactFile>(a.getFiles().size());
+        for (int i = 0; i < a.getFiles().size(); i++) {
+            PackagerConfig.ArtifactFile f = a.getFiles().get(i);
+            if (f == null) {
+                files.add(null);
+                continue;
+            }
+            PackagerConfig.ArtifactFile c = new PackagerConfig.ArtifactFile();
+            c.setRepo(names.resolve(f.getRepo()));
+            c.setFrom(f.getFrom());
+            c.setTo(f.getTo());
+            files.add(c);
+        }
+        copy.setFiles(files);
+        return copy;
+    }
+
+    private static PackagerConfig.RepoConfig merge(PackagerConfig.RepoConfig r, PackagerConfig.RepoConfig t, VarResolver names) {
+        String name = r.getName() != null ? r.getName() : t.getName();
+        if (names != null) name = names.resolve(name);
+        PackagerConfig.RepoConfig m = new PackagerConfig.RepoConfig();
+        m.setName(name);
+        m.setPath(r.getPath() != null ? r.getPath() : named(t.getPath(), name));
+        m.setBranch(r.getBranch() != null ? r.getBranch() : named(t.getBranch(), name));
+        m.setGitUrl(r.getGitUrl() != null ? r.getGitUrl() : named(t.getGitUrl(), name));
+        m.setShallow(r.getShallow() != null ? r.getShallow() : t.getShallow());
+        m.setDependsOn(r.getDependsOn() != null ? r.getDependsOn() : t.getDependsOn());
+        m.setSparse(r.getSparse() != null ? r.getSparse() : t.getSparse());
+        m.setSparsePaths(r.getSparsePaths() != null ? r.getSparsePaths() : t.getSparsePaths());
+        m.setCloneFilter(r.getCloneFilter() != null ? r.getCloneFilter() : t.getCloneFilter());
+
+        // maven 按字段合并：模板给 goals，条目只写 workDir 也行
+        PackagerConfig.MavenConfig rm = r.getMaven();
+        PackagerConfig.MavenConfig tm = t.getMaven();
+        if (rm == null || tm == null) {
+            m.setMaven(rm != null ? rm : tm);
+        } else {
+            PackagerConfig.MavenConfig mm = new PackagerConfig.MavenConfig();
+            mm.setWorkDir(rm.getWorkDir() != null ? rm.getWorkDir() : named(tm.getWorkDir(), name));
+            mm.setGoals(rm.getGoals() != null ? rm.getGoals() : tm.getGoals());
+            m.setMaven(mm);
+        }
+        return m;
+    }
+
+    private static String named(String s, String repoName) {
+        if (s == null || repoName == null || !s.contains(REPO_VAR)) return s;
+        return s.replace(REPO_VAR, repoName);
+    }
+}
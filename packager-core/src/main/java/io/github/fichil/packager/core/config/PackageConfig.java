@@ -6,12 +6,18 @@ import java.util.Map;
 /**
  * package.yml root model:
  * - maven: { executable: ... }  -> PackagerConfig.GlobalMaven
+ * - git:   { parallelism: ... } -> PackagerConfig.GlobalGit
+ * - cache: { enabled, dir }     -> PackagerConfig.GlobalCache
+ * - store: { enabled, dir, keep } -> PackagerConfig.GlobalStore
  * - vars:  { ... }             -> Map<String,String>
  * - includes:                  -> List<IncludeConfig>
  */
 public class PackageConfig {
 
     private PackagerConfig.GlobalMaven maven;
+    private PackagerConfig.GlobalGit git;
+    private PackagerConfig.GlobalCache cache;
+    private PackagerConfig.GlobalStore store;
     private Map<String, String> vars;
     private List<IncludeConfig> includes;
 
@@ -23,6 +29,30 @@ public class PackageConfig {
         this.maven = maven;
     }
 
+    public PackagerConfig.GlobalGit getGit() {
+        return git;
+    }
+
+    public void setGit(PackagerConfig.GlobalGit git) {
+        this.git = git;
+    }
+
+    public PackagerConfig.GlobalCache getCache() {
+        return cache;
+    }
+
+    public void setCache(PackagerConfig.GlobalCache cache) {
+        this.cache = cache;
+    }
+
+    public PackagerConfig.GlobalStore getStore() {
+        return store;
+    }
+
+    public void setStore(PackagerConfig.GlobalStore store) {
+        this.store = store;
+    }
+
     public Map<String, String> getVars() {
         return vars;
     }
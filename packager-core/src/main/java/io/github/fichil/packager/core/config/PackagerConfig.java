@@ -7,22 +7,51 @@ public class PackagerConfig {
 
     private Map<String, JobConfig> jobs;
     private GlobalMaven maven;
+    private GlobalGit git;
+    private GlobalCache cache;
+    private GlobalStore store;
+    private Map<String, RepoConfig> templates;
     private java.util.Map<String, String> vars;
+    private VarResolver resolver; // vars expanded once, built on first use
 
     public Map<String, JobConfig> getJobs() { return jobs; }
     public void setJobs(Map<String, JobConfig> jobs) { this.jobs = jobs; }
+    /** reusable repo blocks, referenced by repos[].template */
+    public Map<String, RepoConfig> getTemplates() { return templates; }
+    public void setTemplates(Map<String, RepoConfig> templates) { this.templates = templates; }
     public Map<String, String> getVars() { return vars; }
-    public void setVars(Map<String, String> vars) { this.vars = vars; }
+    public synchronized void setVars(Map<String, String> vars) { this.vars = vars; this.resolver = null; }
+
+    /** resolver over {@link #getVars()}; throws on cyclic or undefined vars */
+    public synchronized VarResolver resolver() {
+        if (resolver == null) resolver = VarResolver.of(vars);
+        return resolver;
+    }
 
     public static class JobConfig {
         private List<RepoConfig> repos;
         private ArtifactsConfig artifacts;
+        private String parallelism;
+        private Map<String, List<String>> matrix;
+        private List<Map<String, String>> instances;
 
         public List<RepoConfig> getRepos() { return repos; }
         public void setRepos(List<RepoConfig> repos) { this.repos = repos; }
 
         public ArtifactsConfig getArtifacts() { return artifacts; }
         public void setArtifacts(ArtifactsConfig artifacts) { this.artifacts = artifacts; }
+
+        /** max repos built at the same time (default 1 = config order) */
+        public String getParallelism() { return parallelism; }
+        public void setParallelism(String parallelism) { this.parallelism = parallelism; }
+
+        /** one job per combination of values (first key outermost); the job name must use every key, e.g. "all-${branch}" */
+        public Map<String, List<String>> getMatrix() { return matrix; }
+        public void setMatrix(Map<String, List<String>> matrix) { this.matrix = matrix; }
+
+        /** extra jobs with explicit var values, after the matrix combinations; their names must differ */
+        public List<Map<String, String>> getInstances() { return instances; }
+        public void setInstances(List<Map<String, String>> instances) { this.instances = instances; }
     }
 
     public static class RepoConfig {
@@ -32,6 +61,11 @@ public class PackagerConfig {
         private String gitUrl;
         private String shallow;
         private MavenConfig maven;
+        private List<String> dependsOn;
+        private String sparse;
+        private List<String> sparsePaths;
+        private String cloneFilter;
+        private String template;
 
         public String getName() { return name; }
         public void setName(String name) { this.name = name; }
@@ -50,6 +84,26 @@ public class PackagerConfig {
 
         public MavenConfig getMaven() { return maven; }
         public void setMaven(MavenConfig maven) { this.maven = maven; }
+
+        /** repo names built before this one; null = inferred from install goals */
+        public List<String> getDependsOn() { return dependsOn; }
+        public void setDependsOn(List<String> dependsOn) { this.dependsOn = dependsOn; }
+
+        /** "true" = sparse checkout of the maven.workDirs of all entries sharing the path */
+        public String getSparse() { return sparse; }
+        public void setSparse(String sparse) { this.sparse = sparse; }
+
+        /** extra directories for the sparse checkout (e.g. modules needed by -am); implies sparse */
+        public List<String> getSparsePaths() { return sparsePaths; }
+        public void setSparsePaths(List<String> sparsePaths) { this.sparsePaths = sparsePaths; }
+
+        /** partial clone filter, e.g. "blob:none" */
+        public String getCloneFilter() { return cloneFilter; }
+        public void setCloneFilter(String cloneFilter) { this.cloneFilter = cloneFilter; }
+
+        /** name of a templates entry: fields not set here are taken from it, ${repo} in them = this name */
+        public String getTemplate() { return template; }
+        public void setTemplate(String template) { this.template = template; }
     }
 
     public static class MavenConfig {
@@ -66,10 +120,30 @@ public class PackagerConfig {
     public static class ArtifactsConfig {
         private String outputDir;
         private List<ArtifactFile> files;
+        private String parallelism;
+        private String mode;
+        private String bundle;
+        private String bundleOnly;
 
         public String getOutputDir() { return outputDir; }
         public void setOutputDir(String outputDir) { this.outputDir = outputDir; }
 
+        /** max files copied at the same time, default 4 */
+        public String getParallelism() { return parallelism; }
+        public void setParallelism(String parallelism) { this.parallelism = parallelism; }
+
+        /** copy (default) | hardlink | reflink; falls back to copy when the output dir can't link */
+        public String getMode() { return mode; }
+        public void setMode(String mode) { this.mode = mode; }
+
+        /** release archive (.zip/.tar/.tar.gz) of all files with a manifest; relative to outputDir */
+        public String getBundle() { return bundle; }
+        public void setBundle(String bundle) { this.bundle = bundle; }
+
+        /** "true" = only write the bundle, don't copy the files into outputDir */
+        public String getBundleOnly() { return bundleOnly; }
+        public void setBundleOnly(String bundleOnly) { this.bundleOnly = bundleOnly; }
+
         public List<ArtifactFile> getFiles() { return files; }
         public void setFiles(List<ArtifactFile> files) { this.files = files; }
     }
@@ -93,9 +167,117 @@ public class PackagerConfig {
 
     public static class GlobalMaven {
         private String executable;
+        private String mode;
+        private String daemonExecutable;
+        private String batch;
+        private String threads;
+        private String localRepository;
 
         public String getExecutable() { return executable; }
         public void setExecutable(String executable) { this.executable = executable; }
+
+        /** fork (default: new mvn JVM per build) | daemon (reuse warm mvnd daemons) */
+        public String getMode() { return mode; }
+        public void setMode(String mode) { this.mode = mode; }
+
+        /** mvnd executable for mode=daemon (default: mvnd on PATH) */
+        public String getDaemonExecutable() { return daemonExecutable; }
+        public void setDaemonExecutable(String daemonExecutable) { this.daemonExecutable = daemonExecutable; }
+
+        /** "true": merge consecutive module entries of one repo into one reactor build (-pl ... -am) */
+        public String getBatch() { return batch; }
+        public void setBatch(String batch) { this.batch = batch; }
+
+        /** reactor threads for batched builds (-T), e.g. "4" or "1C" */
+        public String getThreads() { return threads; }
+        public void setThreads(String threads) { this.threads = threads; }
+
+        /** local maven repository the remote cache restores installs into (default: ${user.home}/.m2/repository) */
+        public String getLocalRepository() { return localRepository; }
+        public void setLocalRepository(String localRepository) { this.localRepository = localRepository; }
+    }
+
+    public GlobalGit getGit() { return git; }
+    public void setGit(GlobalGit git) { this.git = git; }
+
+    public static class GlobalGit {
+        private String parallelism;
+        private String worktree;
+        private String worktreeDir;
+        private String mirror;
+        private String mirrorDir;
+
+        /** max git clone/fetch running at the same time (sync phase) */
+        public String getParallelism() { return parallelism; }
+        public void setParallelism(String parallelism) { this.parallelism = parallelism; }
+
+        /** "true" = shared object store per gitUrl + one worktree per branch (repo path ignored) */
+        public String getWorktree() { return worktree; }
+        public void setWorktree(String worktree) { this.worktree = worktree; }
+
+        /** stores and worktrees, default {cache.dir}/worktrees */
+        public String getWorktreeDir() { return worktreeDir; }
+        public void setWorktreeDir(String worktreeDir) { this.worktreeDir = worktreeDir; }
+
+        /** "true" = keep a local mirror per gitUrl, new clones copy objects from it */
+        public String getMirror() { return mirror; }
+        public void setMirror(String mirror) { this.mirror = mirror; }
+
+        /** mirrors, default {cache.dir}/mirrors */
+        public String getMirrorDir() { return mirrorDir; }
+        public void setMirrorDir(String mirrorDir) { this.mirrorDir = mirrorDir; }
+    }
+
+    public GlobalCache getCache() { return cache; }
+    public void setCache(GlobalCache cache) { this.cache = cache; }
+
+    public static class GlobalCache {
+        private String enabled;
+        private String dir;
+        private String remote;
+        private String remotePush;
+        private String remoteToken;
+
+        /** "true": skip maven steps whose git HEAD + command did not change since the last success */
+        public String getEnabled() { return enabled; }
+        public void setEnabled(String enabled) { this.enabled = enabled; }
+
+        /** local state dir (default: ${user.home}/.packager) */
+        public String getDir() { return dir; }
+        public void setDir(String dir) { this.dir = dir; }
+
+        /** shared build cache of several machines: a directory (network share) or http://host:port */
+        public String getRemote() { return remote; }
+        public void setRemote(String remote) { this.remote = remote; }
+
+        /** "false": only download from the remote cache, never upload (default "true") */
+        public String getRemotePush() { return remotePush; }
+        public void setRemotePush(String remotePush) { this.remotePush = remotePush; }
+
+        /** shared secret of the http remote cache: sent with uploads, and required by --serve-cache to accept them */
+        public String getRemoteToken() { return remoteToken; }
+        public void setRemoteToken(String remoteToken) { this.remoteToken = remoteToken; }
+    }
+
+    public GlobalStore getStore() { return store; }
+    public void setStore(GlobalStore store) { this.store = store; }
+
+    public static class GlobalStore {
+        private String enabled;
+        private String dir;
+        private String keep;
+
+        /** "true": outputs become hard links onto a content-addressed store, identical files are kept once */
+        public String getEnabled() { return enabled; }
+        public void setEnabled(String enabled) { this.enabled = enabled; }
+
+        /** store root (default: ${cache.dir}/store); must be on the same disk as the outputs to link */
+        public String getDir() { return dir; }
+        public void setDir(String dir) { this.dir = dir; }
+
+        /** runs kept per job before their files are collected, default 10 */
+        public String getKeep() { return keep; }
+        public void setKeep(String keep) { this.keep = keep; }
     }
 
 }
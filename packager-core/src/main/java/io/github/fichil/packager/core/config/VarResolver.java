@@ -1,34 +1,178 @@
 package io.github.fichil.packager.core.config;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * ${name} substitution with the vars of one merged config.
+ * - vars are expanded once (vars may reference each other) into an immutable table; cycles are an error
+ * - every template string is parsed once into literal/var segments, cached in the resolver (so the cache goes
+ *   away with its config, e.g. when the resident server reloads package.yml)
+ * - an unknown ${name} is an error instead of being left in paths/urls
+ * Thread-safe, one instance per merged config (see {@link PackagerConfig#resolver()}).
+ */
 public final class VarResolver {
     private static final Pattern P = Pattern.compile("\\$\\{([A-Za-z0-9_\\-\\.]+)\\}");
 
-    private VarResolver() {}
+    private final Map<String, String> table;
+    // 模板只和文本有关：同一配置的所有线程共用；不做成静态的，常驻服务重载配置后旧模板随旧配置回收
+    private final Map<String, Template> templates = new ConcurrentHashMap<String, Template>();
 
+    private VarResolver(Map<String, String> table) {
+        this.table = table;
+    }
+
+    /**
+     * Expand all vars once.
+     *
+     * @throws IllegalArgumentException on a reference cycle or a var using an undefined var
+     */
+    public static VarResolver of(Map<String, String> vars) {
+        if (vars == null || vars.isEmpty()) {
+            return new VarResolver(Collections.<String, String>emptyMap());
+        }
+        Map<String, String> table = new HashMap<String, String>();
+        List<String> path = new ArrayList<String>();
+        for (String name : vars.keySet()) {
+            expand(name, vars, table, path);
+        }
+        return new VarResolver(Collections.unmodifiableMap(table));
+    }
+
+    /**
+     * @return text with all ${name} replaced; null/empty text unchanged
+     * @throws IllegalArgumentException when text references an undefined var
+     */
+    public String resolve(String text) {
+        if (text == null || text.indexOf("${") < 0) return text;
+        Template t = template(text);
+        StringBuilder sb = new StringBuilder(t.literalLength + 32 * t.varCount);
+        for (int i = 0; i < t.parts.length; i++) {
+            if (!t.isVar[i]) {
+                sb.append(t.parts[i]);
+                continue;
+            }
+            String val = table.get(t.parts[i]);
+            if (val == null) {
+                throw new IllegalArgumentException("Unresolved variable ${" + t.parts[i] + "} in \"" + text + "\"");
+            }
+            sb.append(val);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Fully expanded vars (read-only).
+     */
+    public Map<String, String> getVars() {
+        return table;
+    }
+
+    /**
+     * One-off resolution; expands {@code vars} on every call, prefer {@link #of(Map)} + {@link #resolve(String)}.
+     */
     public static String resolve(String text, Map<String, String> vars) {
-        if (text == null || text.isEmpty() || vars == null || vars.isEmpty()) return text;
-
-        String result = text;
-        // 最多迭代几轮，避免 vars 里互相引用造成死循环
-        for (int i = 0; i < 5; i++) {
-            Matcher m = P.matcher(result);
-            StringBuffer sb = new StringBuffer();
-            boolean changed = false;
+        if (text == null || text.indexOf("${") < 0) return text;
+        return of(vars).resolve(text);
+    }
+
+    private static String expand(String name, Map<String, String> vars, Map<String, String> table, List<String> path) {
+        String done = table.get(name);
+        if (done != null) return done;
+
+        if (path.contains(name)) {
+            StringBuilder cycle = new StringBuilder();
+            for (int i = path.indexOf(name); i < path.size(); i++) {
+                cycle.append(path.get(i)).append(" -> ");
+            }
+            throw new IllegalArgumentException("Variable cycle: " + cycle + name);
+        }
+
+        String raw = vars.get(name);
+        if (raw == null) raw = ""; // "key:" 没写值
+        String value = raw;
+        if (raw.indexOf("${") >= 0) {
+            path.add(name);
+            // 每个 var 只展开一次，不缓存
+            Template t = Template.compile(raw);
+            StringBuilder sb = new StringBuilder(t.literalLength + 32 * t.varCount);
+            for (int i = 0; i < t.parts.length; i++) {
+                if (!t.isVar[i]) {
+                    sb.append(t.parts[i]);
+                } else if (!vars.containsKey(t.parts[i])) {
+                    throw new IllegalArgumentException("Unresolved variable ${" + t.parts[i] + "} in vars." + name);
+                } else {
+                    sb.append(expand(t.parts[i], vars, table, path));
+                }
+            }
+            path.remove(path.size() - 1);
+            value = sb.toString();
+        }
+        table.put(name, value);
+        return value;
+    }
+
+    private Template template(String text) {
+        Template t = templates.get(text);
+        if (t == null) {
+            t = Template.compile(text);
+            templates.put(text, t);
+        }
+        return t;
+    }
+
+    /**
+     * Text split into literal and ${var} segments.
+     */
+    private static final class Template {
+        final String[] parts;
+        final boolean[] isVar;
+        final int literalLength;
+        final int varCount;
+
+        private Template(String[] parts, boolean[] isVar, int literalLength, int varCount) {
+            this.parts = parts;
+            this.isVar = isVar;
+            this.literalLength = literalLength;
+            this.varCount = varCount;
+        }
+
+        static Template compile(String text) {
+            List<String> parts = new ArrayList<String>();
+            List<Boolean> vars = new ArrayList<Boolean>();
+            int literalLength = 0;
+            int varCount = 0;
+
+            Matcher m = P.matcher(text);
+            int last = 0;
             while (m.find()) {
-                String key = m.group(1);
-                String val = vars.get(key);
-                if (val == null) val = m.group(0); // 找不到就原样保留，方便排错
-                else changed = true;
-                m.appendReplacement(sb, Matcher.quoteReplacement(val));
+                if (m.start() > last) {
+                    parts.add(text.substring(last, m.start()));
+                    vars.add(Boolean.FALSE);
+                    literalLength += m.start() - last;
+                }
+                parts.add(m.group(1));
+                vars.add(Boolean.TRUE);
+                varCount++;
+                last = m.end();
+            }
+            if (last < text.length()) {
+                parts.add(text.substring(last));
+                vars.add(Boolean.FALSE);
+                literalLength += text.length() - last;
+            }
+
+            boolean[] isVar = new boolean[vars.size()];
+            for (int i = 0; i < isVar.length; i++) {
+                isVar[i] = vars.get(i).booleanValue();
             }
-            m.appendTail(sb);
-            result = sb.toString();
-            if (!changed) break;
+            return new Template(parts.toArray(new String[0]), isVar, literalLength, varCount);
         }
-        return result;
     }
 }
@@ -0,0 +1,72 @@
+package io.github.fichil.packager.core.exec;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Best-effort CPU time of a running process tree (process + descendants).
+ * The OS forgets the numbers once the process exited, so the last sample taken while it was alive is kept;
+ * processes shorter than the first sample report -1.
+ */
+final class CpuSampler implements Runnable {
+
+    private static final ScheduledExecutorService SAMPLER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "packager-cpu-sampler");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final ProcessHandle handle;
+    private final AtomicLong cpuMillis = new AtomicLong(-1L);
+    private volatile ScheduledFuture<?> future;
+
+    private CpuSampler(ProcessHandle handle) {
+        this.handle = handle;
+    }
+
+    static CpuSampler start(Process process) {
+        CpuSampler s = new CpuSampler(process.toHandle());
+        s.future = SAMPLER.scheduleAtFixedRate(s, 100, 500, TimeUnit.MILLISECONDS);
+        return s;
+    }
+
+    @Override
+    public void run() {
+        if (!handle.isAlive()) return;
+
+        long total = millis(handle.info().totalCpuDuration());
+        if (total < 0) return;
+
+        Stream<ProcessHandle> children = handle.descendants();
+        Object[] ds = children.toArray();
+        for (int i = 0; i < ds.length; i++) {
+            long c = millis(((ProcessHandle) ds[i]).info().totalCpuDuration());
+            if (c > 0) total += c;
+        }
+        // 子进程退出后不再计入，取最大值
+        if (total > cpuMillis.get()) cpuMillis.set(total);
+    }
+
+    /**
+     * Stop sampling; returns the CPU time in millis, -1 when unknown.
+     */
+    long stop() {
+        ScheduledFuture<?> f = future;
+        if (f != null) f.cancel(false);
+        return cpuMillis.get();
+    }
+
+    private static long millis(Optional<Duration> d) {
+        return d.isPresent() ? d.get().toMillis() : -1L;
+    }
+}
@@ -0,0 +1,90 @@
+package io.github.fichil.packager.core.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Copies a process output stream line by line:
+ * - console: every line printed whole with a "[label] " prefix, so parallel builds stay readable
+ * - log file (optional): the same lines without prefix, UTF-8
+ *
+ * Reads through a fixed-size NIO buffer; an overlong line is flushed in chunks of MAX_LINE bytes.
+ */
+final class LinePump implements Runnable {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_LINE = 64 * 1024;
+
+    private final InputStream in;
+    private final Charset charset;
+    private final String prefix;
+    private final PrintStream console;
+    private final FileChannel logFile;
+
+    LinePump(InputStream in, Charset charset, String label, PrintStream console, FileChannel logFile) {
+        this.in = in;
+        this.charset = charset;
+        this.prefix = (label == null || label.isEmpty()) ? "" : "[" + label + "] ";
+        this.console = console;
+        this.logFile = logFile;
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+
+        try (ReadableByteChannel ch = Channels.newChannel(in)) {
+            while (ch.read(buf) >= 0) {
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    byte b = buf.get();
+                    if (b == '\n') {
+                        emit(line);
+                    } else {
+                        line.write(b);
+                        if (line.size() >= MAX_LINE) emit(line);
+                    }
+                }
+                buf.clear();
+            }
+            if (line.size() > 0) emit(line);
+        } catch (IOException ex) {
+            // process killed / stream closed: keep what was already written
+            if (line.size() > 0) {
+                try {
+                    emit(line);
+                } catch (IOException ignore) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private void emit(ByteArrayOutputStream line) throws IOException {
+        byte[] bytes = line.toByteArray();
+        line.reset();
+
+        int len = bytes.length;
+        if (len > 0 && bytes[len - 1] == '\r') len--;
+        String text = new String(bytes, 0, len, charset);
+
+        // println 本身是同步的：一行不会被其他进程的输出打断
+        console.println(prefix + text);
+
+        if (logFile != null) {
+            ByteBuffer out = ByteBuffer.wrap((text + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+            while (out.hasRemaining()) {
+                logFile.write(out);
+            }
+        }
+    }
+}
@@ -1,40 +1,259 @@
 package io.github.fichil.packager.core.exec;
 
+import io.github.fichil.packager.core.metrics.RunMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 public class ProcessExecutor {
 
     private static final Logger log = LoggerFactory.getLogger(ProcessExecutor.class);
 
+    private static final ThreadLocal<String> LABEL = new ThreadLocal<String>();
+
+    private static final ExecutorService PUMPS = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger seq = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "packager-pump-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
     private boolean dryRun = false;
+    private File logDir;
+    private RunMetrics metrics;
+    private String metricsJob;
+    private String consolePrefix; // job name when jobs run in parallel
+    private PrintStream console;  // null = System.out
 
     public void run(List<String> command, File workDir) throws Exception {
+        RunningProcess rp = start(command, workDir);
+        int code = rp.await();
+        if (code != 0) {
+            throw new RuntimeException("Command failed with exit code " + code + ": " + rp.getCommandLine());
+        }
+    }
+
+    /**
+     * Start a command without blocking. stdout+stderr are pumped line by line to the console,
+     * prefixed with the calling thread's label (see {@link #setThreadLabel}), and appended to
+     * {@code <logDir>/<label>.log} when a log dir is set.
+     */
+    public RunningProcess start(List<String> command, File workDir) throws Exception {
         String cmdLine = String.join(" ", command);
         String dir = (workDir == null ? "null" : workDir.getAbsolutePath());
 
         if (dryRun) {
             System.out.println("[DRY-RUN] " + cmdLine + " (dir=" + dir + ")");
-            return;
+            return RunningProcess.completed(cmdLine);
         }
 
         ProcessBuilder pb = new ProcessBuilder(command);
         pb.directory(workDir);
-        pb.inheritIO();
+        pb.redirectInput(ProcessBuilder.Redirect.INHERIT);
+        pb.redirectErrorStream(true);
 
         log.info("Exec: {} (dir={})", cmdLine, dir);
 
+        String label = LABEL.get();
+        FileChannel logFile = openLog(label, cmdLine, dir);
+
+        final RunMetrics.Timer timer = (metrics == null ? null
+                : metrics.start(metricsJob, label, RunMetrics.KIND_PROCESS, stepName(command)).detail(cmdLine));
+
+        Process p;
+        try {
+            p = pb.start();
+        } catch (IOException ex) {
+            if (logFile != null) logFile.close();
+            if (timer != null) timer.failed();
+            throw ex;
+        }
+
+        final CpuSampler cpu = (timer == null ? null : CpuSampler.start(p));
+
+        CompletableFuture<Void> pumped = CompletableFuture.runAsync(
+                new LinePump(p.getInputStream(), Charset.defaultCharset(), consoleLabel(label), console != null ? console : System.out, logFile), PUMPS);
+        RunningProcess rp = new RunningProcess(p, cmdLine, pumped, logFile);
+
+        if (timer != null) {
+            rp.onExit().whenComplete(new BiConsumer<Integer, Throwable>() {
+                @Override
+                public void accept(Integer code, Throwable err) {
+                    timer.cpuMillis(cpu.stop());
+                    if (code == null) {
+                        timer.failed();
+                        return;
+                    }
+                    timer.exitCode(code.intValue());
+                    if (code.intValue() == 0) {
+                        timer.ok();
+                    } else {
+                        timer.failed();
+                    }
+                }
+            });
+        }
+        return rp;
+    }
+
+    /**
+     * "git fetch", "git checkout", "mvn", "mvnd" ...
+     */
+    static String stepName(List<String> command) {
+        if (command.isEmpty()) return "exec";
+
+        String exe = new File(command.get(0)).getName().toLowerCase();
+        int dot = exe.lastIndexOf('.');
+        if (dot > 0 && (exe.endsWith(".cmd") || exe.endsWith(".exe") || exe.endsWith(".bat"))) {
+            exe = exe.substring(0, dot);
+        }
+        if (!"git".equals(exe)) return exe;
+
+        for (int i = 1; i < command.size(); i++) {
+            String a = command.get(i);
+            if (!a.startsWith("-")) return exe + " " + a;
+        }
+        return exe;
+    }
+
+    /**
+     * Label used to prefix output of processes started by the current thread (e.g. repo name);
+     * null = no prefix.
+     */
+    public static void setThreadLabel(String label) {
+        if (label == null) {
+            LABEL.remove();
+        } else {
+            LABEL.set(label);
+        }
+    }
+
+    /**
+     * Directory for per-label log files; null = console only.
+     */
+    public void setLogDir(File logDir) {
+        this.logDir = logDir;
+    }
+
+    /**
+     * Record wall time, exit code and CPU time of every started process under the given job name.
+     */
+    public void setMetrics(RunMetrics metrics, String job) {
+        this.metrics = metrics;
+        this.metricsJob = job;
+    }
+
+    /**
+     * Prepended to the console label of every line ("[job/repo] ..."), used when several jobs run at once.
+     * Log files are per job already and stay unprefixed.
+     */
+    public void setConsolePrefix(String consolePrefix) {
+        this.consolePrefix = consolePrefix;
+    }
+
+    /**
+     * Where process output goes instead of System.out (the pump threads are shared, they don't know
+     * which run started the process).
+     */
+    public void setConsole(PrintStream console) {
+        this.console = console;
+    }
+
+    private String consoleLabel(String label) {
+        if (consolePrefix == null) return label;
+        return label == null ? consolePrefix : consolePrefix + "/" + label;
+    }
+
+    /**
+     * Label of the current thread, null when none.
+     */
+    public static String threadLabel() {
+        return LABEL.get();
+    }
+
+    private FileChannel openLog(String label, String cmdLine, String dir) throws IOException {
+        if (logDir == null) return null;
+
+        Files.createDirectories(logDir.toPath());
+        String name = (label == null || label.isEmpty()) ? "packager" : label;
+        File f = new File(logDir, name.replaceAll("[^A-Za-z0-9._\\-]+", "_") + ".log");
+
+        FileChannel ch = FileChannel.open(f.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        ByteBuffer header = ByteBuffer.wrap(("$ " + cmdLine + " (dir=" + dir + ")" + System.lineSeparator())
+                .getBytes(StandardCharsets.UTF_8));
+        while (header.hasRemaining()) {
+            ch.write(header);
+        }
+        return ch;
+    }
+
+    /**
+     * Run a read-only query (git rev-parse, git status ...) and return its trimmed stdout.
+     * Executed even in dry-run; stderr goes to the console.
+     */
+    public String runAndCapture(List<String> command, File workDir) throws Exception {
+        String cmdLine = String.join(" ", command);
+
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.directory(workDir);
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+        log.debug("Query: {} (dir={})", cmdLine, workDir == null ? "null" : workDir.getAbsolutePath());
+
+        RunMetrics.Timer timer = (metrics == null ? null
+                : metrics.start(metricsJob, LABEL.get(), RunMetrics.KIND_PROCESS, stepName(command)).detail(cmdLine));
+
         Process p = pb.start();
-        int code = p.waitFor();
+        byte[] out;
+        int code;
+        try {
+            out = p.getInputStream().readAllBytes();
+            code = p.waitFor();
+        } catch (InterruptedException ex) {
+            RunningProcess.destroyTree(p);
+            if (timer != null) timer.failed();
+            throw ex;
+        }
+        if (timer != null) {
+            timer.exitCode(code);
+            if (code == 0) {
+                timer.ok();
+            } else {
+                timer.failed();
+            }
+        }
         if (code != 0) {
             throw new RuntimeException("Command failed with exit code " + code + ": " + cmdLine);
         }
+        return new String(out, StandardCharsets.UTF_8).trim();
     }
 
     public void setDryRun(boolean dryRun) {
         this.dryRun = dryRun;
     }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
 }
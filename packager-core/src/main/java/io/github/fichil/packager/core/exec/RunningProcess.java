@@ -0,0 +1,129 @@
+package io.github.fichil.packager.core.exec;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Handle of a process started by {@link ProcessExecutor#start}.
+ * {@link #onExit()} completes with the exit code once the process ended and its output is fully pumped.
+ */
+public final class RunningProcess {
+
+    // 杀掉进程树后最多等这么久，让它们真正退出（不再写 target/、放开输出管道）
+    private static final long DESTROY_WAIT_MILLIS = 10000L;
+
+    private final Process process;
+    private final String commandLine;
+    private final CompletableFuture<Integer> exit;
+
+    private RunningProcess(String commandLine) {
+        this.process = null;
+        this.commandLine = commandLine;
+        this.exit = CompletableFuture.completedFuture(Integer.valueOf(0));
+    }
+
+    /**
+     * Nothing was started (dry-run): already completed with exit code 0.
+     */
+    static RunningProcess completed(String commandLine) {
+        return new RunningProcess(commandLine);
+    }
+
+    RunningProcess(final Process process, String commandLine,
+                   CompletableFuture<Void> pumped, final FileChannel logFile) {
+        this.process = process;
+        this.commandLine = commandLine;
+        this.exit = pumped.thenCombine(process.onExit(), new BiFunction<Void, Process, Integer>() {
+            @Override
+            public Integer apply(Void v, Process p) {
+                closeQuietly(logFile);
+                return Integer.valueOf(p.exitValue());
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> onExit() {
+        return exit;
+    }
+
+    public String getCommandLine() {
+        return commandLine;
+    }
+
+    /** -1 when nothing was started */
+    public long pid() {
+        return process == null ? -1L : process.pid();
+    }
+
+    /**
+     * Block until the process ended; an interrupt kills the process (job cancelled).
+     */
+    public int await() throws Exception {
+        try {
+            return exit.get().intValue();
+        } catch (InterruptedException ex) {
+            destroy();
+            throw ex;
+        } catch (java.util.concurrent.ExecutionException ex) {
+            Throwable c = ex.getCause();
+            if (c instanceof Exception) throw (Exception) c;
+            throw ex;
+        }
+    }
+
+    /**
+     * Kill the process and everything it started, then wait briefly for them to go away.
+     */
+    public void destroy() {
+        if (process != null) destroyTree(process);
+    }
+
+    /**
+     * mvn.cmd / the git.exe wrapper only start the real worker: killing the direct child would leave
+     * the Maven JVM building into target/ and holding the output pipe. Descendants first, then the process.
+     */
+    static void destroyTree(Process p) {
+        List<ProcessHandle> tree = new ArrayList<ProcessHandle>();
+        Iterator<ProcessHandle> it = p.descendants().iterator();
+        while (it.hasNext()) {
+            tree.add(it.next());
+        }
+        for (int i = 0; i < tree.size(); i++) {
+            tree.get(i).destroy();
+        }
+        p.destroy();
+
+        long deadline = System.currentTimeMillis() + DESTROY_WAIT_MILLIS;
+        waitFor(p.toHandle(), deadline);
+        for (int i = 0; i < tree.size(); i++) {
+            waitFor(tree.get(i), deadline);
+        }
+    }
+
+    private static void waitFor(ProcessHandle h, long deadline) {
+        long left = deadline - System.currentTimeMillis();
+        if (left <= 0 || !h.isAlive()) return;
+        try {
+            h.onExit().get(left, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            // 超时：不再等，调用方照常退出
+        }
+    }
+
+    private static void closeQuietly(FileChannel ch) {
+        if (ch == null) return;
+        try {
+            ch.close();
+        } catch (IOException ignore) {
+            // ignore
+        }
+    }
+}
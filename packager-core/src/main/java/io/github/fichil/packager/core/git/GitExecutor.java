@@ -3,48 +3,326 @@ package io.github.fichil.packager.core.git;
 import io.github.fichil.packager.core.exec.ProcessExecutor;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class GitExecutor {
 
+    // 同一个对象库（bare store）同时只允许一个 fetch / worktree add（并发 job 共用）
+    private static final Map<String, Object> STORE_LOCKS = new ConcurrentHashMap<String, Object>();
+
     private final ProcessExecutor pe;
+    private File worktreeRoot; // null = one working copy per configured path
+    private File mirrorRoot;   // null = clone straight from gitUrl
 
     public GitExecutor(ProcessExecutor pe) {
         this.pe = pe;
     }
 
     public void cloneRepo(String gitUrl, File repoDir, boolean shallow) throws Exception {
+        cloneRepo(gitUrl, repoDir, shallow, null, false);
+    }
+
+    /**
+     * @param filter partial clone filter (e.g. blob:none), null = all objects
+     * @param sparse start with a sparse checkout of the top-level files only, see {@link #applySparse}
+     */
+    public void cloneRepo(String gitUrl, File repoDir, boolean shallow, String filter, boolean sparse) throws Exception {
+        java.util.List<String> args = new java.util.ArrayList<String>();
+        args.add("clone");
+        if (sparse) args.add("--sparse");
+
+        if (mirrorRoot != null) {
+            // 镜像模式：先增量更新本地 mirror，再从 mirror 本地 clone（硬链接对象，不走网络），最后把 origin 指回 gitUrl
+            // 本地 clone 很便宜，shallow / filter 在这里不需要
+            File mirror = updateMirror(gitUrl);
+            args.add(mirror.getAbsolutePath());
+            args.add(repoDir.getAbsolutePath());
+            runGit(repoDir.getParentFile(), args.toArray(new String[0]));
+            runGit(repoDir, "remote", "set-url", "origin", gitUrl);
+            return;
+        }
+
         // 保持你原逻辑：clone 到目标目录
         if (shallow) {
-            runGit(repoDir.getParentFile(), "clone", "--depth", "1", gitUrl, repoDir.getAbsolutePath());
-        } else {
-            runGit(repoDir.getParentFile(), "clone", gitUrl, repoDir.getAbsolutePath());
+            args.add("--depth");
+            args.add("1");
         }
+        if (filter != null) args.add("--filter=" + filter);
+        args.add(gitUrl);
+        args.add(repoDir.getAbsolutePath());
+        runGit(repoDir.getParentFile(), args.toArray(new String[0]));
+    }
+
+    /**
+     * Limit the working tree to {@code paths} (cone mode: the directories plus all top-level files, so root and
+     * parent poms stay). Does nothing when the checkout already has exactly these paths.
+     */
+    public void applySparse(File repoDir, java.util.List<String> paths) throws Exception {
+        java.util.Set<String> wanted = new java.util.TreeSet<String>(paths);
+        String current = queryGit(repoDir, "sparse-checkout", "list");
+        java.util.Set<String> have = new java.util.TreeSet<String>();
+        if (!current.isEmpty()) have.addAll(java.util.Arrays.asList(current.split("\\r?\\n")));
+        if (have.equals(wanted) && "true".equals(queryGit(repoDir, "config", "--get", "core.sparseCheckout"))) return;
+
+        java.util.List<String> args = new java.util.ArrayList<String>();
+        args.add("sparse-checkout");
+        args.add("set");
+        args.add("--cone");
+        args.addAll(wanted);
+        runGit(repoDir, args.toArray(new String[0]));
     }
 
     public void checkoutAndPull(File repoDir, String branch) throws Exception {
+        String tracking = "refs/remotes/origin/" + branch;
 
-        // 0) fix origin fetch refspec to fetch ALL branches (avoid single-branch clones)
-        try {
-            runGit(repoDir, "config", "--unset-all", "remote.origin.fetch");
-        } catch (RuntimeException ignore) {
-            // ignore if not exists
+        // 0) fix origin fetch refspec to fetch ALL branches (avoid single-branch clones); only when it differs
+        String refspec = "+refs/heads/*:refs/remotes/origin/*";
+        if (!refspec.equals(queryGit(repoDir, "config", "--get-all", "remote.origin.fetch"))) {
+            try {
+                runGit(repoDir, "config", "--unset-all", "remote.origin.fetch");
+            } catch (RuntimeException ignore) {
+                // ignore if not exists
+            }
+            runGit(repoDir, "config", "--add", "remote.origin.fetch", refspec);
         }
-        runGit(repoDir, "config", "--add", "remote.origin.fetch", "+refs/heads/*:refs/remotes/origin/*");
 
-        // 1) fetch
-        runGit(repoDir, "fetch", "--prune", "origin");
+        // 1) 一次 ls-remote 拿到 origin 的所有分支；目标分支和本地 origin/<branch> 一致就不 fetch
+        //    dry-run 不访问 origin，只打印要执行的命令
+        if (pe.isDryRun()) {
+            runGit(repoDir, "fetch", "origin", "+refs/heads/" + branch + ":" + tracking);
+        } else {
+            Map<String, String> heads = remoteHeads(repoDir);
+            String remoteSha = heads.get("refs/heads/" + branch);
+            if (remoteSha == null) {
+                throw new IllegalStateException("Branch not found on origin: " + branch + " (dir=" + repoDir.getAbsolutePath() + ")");
+            }
+            if (!remoteSha.equals(queryGit(repoDir, "rev-parse", "--verify", "--quiet", tracking))) {
+                runGit(repoDir, "fetch", "origin", "+refs/heads/" + branch + ":" + tracking);
+                pruneTracking(repoDir, heads);
+            } else if (branch.equals(queryGit(repoDir, "rev-parse", "--abbrev-ref", "HEAD"))
+                    && remoteSha.equals(queryGit(repoDir, "rev-parse", "HEAD"))) {
+                System.out.println("[SKIP] git sync, origin/" + branch + " unchanged (" + remoteSha.substring(0, 8) + "): " + repoDir.getAbsolutePath());
+                return;
+            }
+        }
 
         // 2) checkout local; if missing, create from origin/<branch>
         try {
             runGit(repoDir, "checkout", branch);
         } catch (RuntimeException ex) {
-            runGit(repoDir, "checkout", "-B", branch, "origin/" + branch);
+            runGit(repoDir, "checkout", "-B", branch, tracking);
         }
 
-        // 3) pull
-        runGit(repoDir, "pull", "--ff-only", "origin", branch);
+        // 3) fast-forward to what was just fetched (pull would fetch again)
+        runGit(repoDir, "merge", "--ff-only", tracking);
+    }
+
+    /**
+     * sha of {@code refs/heads/<branch>} on origin (one ls-remote round trip, no objects transferred).
+     */
+    public String remoteHead(File repoDir, String branch) throws Exception {
+        String out = captureGit(repoDir, "ls-remote", "origin", "refs/heads/" + branch);
+        if (out.isEmpty()) {
+            throw new IllegalStateException("Branch not found on origin: " + branch + " (dir=" + repoDir.getAbsolutePath() + ")");
+        }
+        return out.split("\\s+")[0];
+    }
+
+    /**
+     * refs/heads/* of origin -> sha (one ls-remote round trip).
+     */
+    private Map<String, String> remoteHeads(File repoDir) throws Exception {
+        Map<String, String> heads = new java.util.HashMap<String, String>();
+        String out = captureGit(repoDir, "ls-remote", "--heads", "origin");
+        if (out.isEmpty()) return heads;
+        String[] lines = out.split("\\r?\\n");
+        for (int i = 0; i < lines.length; i++) {
+            String[] f = lines[i].trim().split("\\s+");
+            if (f.length == 2) heads.put(f[1], f[0]);
+        }
+        return heads;
+    }
+
+    // 定向 fetch 不会 prune：和原来的 fetch --prune 一样，删掉 origin 上已不存在的 origin/<x>
+    private void pruneTracking(File repoDir, Map<String, String> heads) throws Exception {
+        String prefix = "refs/remotes/origin/";
+        String refs = queryGit(repoDir, "for-each-ref", "--format=%(refname)", prefix);
+        if (refs.isEmpty()) return;
+        String[] lines = refs.split("\\r?\\n");
+        for (int i = 0; i < lines.length; i++) {
+            String ref = lines[i].trim();
+            if (!ref.startsWith(prefix) || ref.equals(prefix + "HEAD")) continue;
+            if (!heads.containsKey("refs/heads/" + ref.substring(prefix.length()))) {
+                runGit(repoDir, "update-ref", "-d", ref);
+            }
+        }
+    }
+
+    /**
+     * Mirror cache: {@code git clone --mirror} per gitUrl under {@code root}, refreshed with one fetch before
+     * every clone; new working copies are local clones of it (hardlinked objects) with origin set back to gitUrl.
+     * null = clone from gitUrl.
+     */
+    public void setMirrorRoot(File root) {
+        this.mirrorRoot = root;
+    }
+
+    /**
+     * Create the mirror of {@code gitUrl} or fetch what changed since the last update.
+     *
+     * @return mirror directory
+     */
+    public File updateMirror(String gitUrl) throws Exception {
+        File mirror = new File(mirrorRoot, storeName(gitUrl) + ".git");
+        synchronized (storeLock(mirror)) {
+            if (!new File(mirror, "HEAD").isFile()) {
+                mirrorRoot.mkdirs();
+                runGit(mirrorRoot, "clone", "--mirror", gitUrl, mirror.getAbsolutePath());
+            } else if (pe.isDryRun() || !sameHeads(captureGit(mirror, "ls-remote", "--heads", "origin"),
+                    captureGit(mirror, "for-each-ref", "--format=%(objectname)%09%(refname)", "refs/heads"))) {
+                runGit(mirror, "fetch", "--prune", "origin");
+            }
+        }
+        return mirror;
+    }
+
+    /**
+     * Worktree mode: one bare object store per gitUrl under {@code root} and one {@code git worktree} per branch,
+     * so different branches of a repo can be synced and built at the same time.
+     * null = classic mode (clone into the configured path).
+     */
+    public void setWorktreeRoot(File root) {
+        this.worktreeRoot = root;
+    }
+
+    public boolean isWorktreeMode() {
+        return worktreeRoot != null;
+    }
+
+    /**
+     * Working tree used for {@code branch} of {@code gitUrl} in worktree mode:
+     * {@code <root>/<repo>-<hash>/<branch>}.
+     */
+    public File worktreeDir(String gitUrl, String branch) {
+        return new File(new File(worktreeRoot, storeName(gitUrl)), branch.replaceAll("[^A-Za-z0-9._\\-]+", "_"));
+    }
+
+    /**
+     * Fetch {@code branch} into the shared store (created on first use), add the branch worktree if missing,
+     * then point it at origin/{@code branch} (the worktree is managed here, local commits are not kept).
+     *
+     * @return the worktree directory
+     */
+    public File syncWorktree(String gitUrl, String branch, boolean shallow) throws Exception {
+        return syncWorktree(gitUrl, branch, shallow, null, null);
     }
 
+    /**
+     * @param filter      partial clone filter for the store (only applied when the store is created)
+     * @param sparsePaths sparse checkout of the worktree, null = full
+     */
+    public File syncWorktree(String gitUrl, String branch, boolean shallow,
+                             String filter, java.util.List<String> sparsePaths) throws Exception {
+        File store = new File(worktreeRoot, storeName(gitUrl) + ".git");
+        File worktree = worktreeDir(gitUrl, branch);
+        String tracking = "refs/remotes/origin/" + branch;
+
+        synchronized (storeLock(store)) {
+            if (!new File(store, "HEAD").isFile()) {
+                store.mkdirs();
+                runGit(store, "init", "--bare");
+                runGit(store, "remote", "add", "origin", gitUrl);
+                runGit(store, "config", "remote.origin.fetch", "+refs/heads/*:refs/remotes/origin/*");
+                if (filter != null && mirrorRoot == null) {
+                    // partial clone：之后的 fetch 都按 filter 拉，缺的 blob 检出时按需下载
+                    runGit(store, "config", "remote.origin.promisor", "true");
+                    runGit(store, "config", "remote.origin.partialclonefilter", filter);
+                }
+            }
+
+            // 只拉需要的分支；origin 上没变就不 fetch（dry-run 不问 origin）
+            boolean unchanged = mirrorRoot == null && !pe.isDryRun()
+                    && queryGit(store, "rev-parse", "--verify", "--quiet", tracking).equals(remoteHead(store, branch));
+            if (unchanged) {
+                // nothing to fetch
+            } else if (mirrorRoot != null) {
+                runGit(store, "fetch", "--prune", updateMirror(gitUrl).getAbsolutePath(), "+refs/heads/" + branch + ":" + tracking);
+            } else if (shallow) {
+                runGit(store, "fetch", "--prune", "--depth", "1", "origin", "+refs/heads/" + branch + ":" + tracking);
+            } else {
+                runGit(store, "fetch", "--prune", "origin", "+refs/heads/" + branch + ":" + tracking);
+            }
+
+            if (!worktree.isDirectory()) {
+                // 目录被手动删掉时清理残留的 worktree 记录
+                runGit(store, "worktree", "prune");
+                if (sparsePaths == null) {
+                    runGit(store, "worktree", "add", "-B", branch, worktree.getAbsolutePath(), "origin/" + branch);
+                    return worktree;
+                }
+                runGit(store, "worktree", "add", "--no-checkout", "-B", branch, worktree.getAbsolutePath(), "origin/" + branch);
+            }
+        }
+
+        if (sparsePaths != null) applySparse(worktree, sparsePaths);
+        // 工作树只由这里维护：直接把分支指到 origin/<branch>。
+        // shallow store 每次只 fetch --depth 1，新旧提交没有共同历史，merge --ff-only 会拒绝
+        runGit(worktree, "checkout", "-B", branch, "origin/" + branch);
+        return worktree;
+    }
+
+    private static Object storeLock(File store) {
+        String key;
+        try {
+            key = store.getCanonicalPath();
+        } catch (IOException ex) {
+            key = store.getAbsolutePath();
+        }
+        Object lock = STORE_LOCKS.get(key);
+        if (lock == null) {
+            STORE_LOCKS.putIfAbsent(key, new Object());
+            lock = STORE_LOCKS.get(key);
+        }
+        return lock;
+    }
+
+    // 可读的仓库名 + url 哈希（同名仓库不同地址不冲突）
+    private static String storeName(String gitUrl) {
+        String u = gitUrl.trim();
+        while (u.endsWith("/")) u = u.substring(0, u.length() - 1);
+        String name = u.substring(Math.max(u.lastIndexOf('/'), u.lastIndexOf(':')) + 1);
+        if (name.endsWith(".git")) name = name.substring(0, name.length() - 4);
+        name = name.replaceAll("[^A-Za-z0-9._\\-]+", "_");
+
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(u.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 4; i++) {
+                sb.append(String.format("%02x", d[i] & 0xff));
+            }
+            return (name.isEmpty() ? "repo" : name) + "-" + sb;
+        } catch (Exception ex) {
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+
+    /**
+     * @return full sha of HEAD
+     */
+    public String headCommit(File repoDir) throws Exception {
+        return captureGit(repoDir, "rev-parse", "HEAD");
+    }
+
+    /**
+     * @return true when the working tree has no modified/untracked files (ignored files like target/ don't count)
+     */
+    public boolean isClean(File repoDir) throws Exception {
+        return captureGit(repoDir, "status", "--porcelain").isEmpty();
+    }
 
     private boolean remoteBranchExists(File repoDir, String remote, String branch) throws Exception {
         // git show-ref --verify --quiet refs/remotes/<remote>/<branch>
@@ -78,6 +356,31 @@ public class GitExecutor {
         return null;
     }
 
+    // ls-remote 与本地 for-each-ref 都是 "<sha>\t<ref>"，按行比较（忽略顺序）
+    private static boolean sameHeads(String remote, String local) {
+        java.util.Set<String> a = new java.util.TreeSet<String>(java.util.Arrays.asList(remote.trim().split("\\r?\\n")));
+        java.util.Set<String> b = new java.util.TreeSet<String>(java.util.Arrays.asList(local.trim().split("\\r?\\n")));
+        return a.equals(b);
+    }
+
+    // 查询失败（ref 不存在等）返回 ""
+    private String queryGit(File dir, String... args) throws Exception {
+        try {
+            return captureGit(dir, args);
+        } catch (RuntimeException ex) {
+            return "";
+        }
+    }
+
+    private String captureGit(File dir, String... args) throws Exception {
+        java.util.List<String> cmd = new java.util.ArrayList<String>();
+        cmd.add("git");
+        for (int i = 0; i < args.length; i++) {
+            cmd.add(args[i]);
+        }
+        return pe.runAndCapture(cmd, dir);
+    }
+
     private void runGit(File dir, String... args) throws Exception {
         java.util.List<String> cmd = new java.util.ArrayList<String>();
         cmd.add("git");
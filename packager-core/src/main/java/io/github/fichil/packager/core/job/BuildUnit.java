@@ -0,0 +1,54 @@
+package io.github.fichil.packager.core.job;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One maven invocation of a job.
+ * - single: one repo entry, mvn runs in its workDir
+ * - reactor batch: consecutive entries of one working copy with the same goals,
+ *   mvn runs once in the repo root with -pl module1,module2 -am
+ */
+public final class BuildUnit {
+
+    private final int index;
+    private final SyncGroup group;
+    private final List<String> goals;
+    private final List<Integer> members = new ArrayList<Integer>();
+    private final List<String> memberNames = new ArrayList<String>();
+    private final List<String> workDirs = new ArrayList<String>();
+
+    BuildUnit(int index, SyncGroup group, List<String> goals) {
+        this.index = index;
+        this.group = group;
+        this.goals = goals;
+    }
+
+    void addMember(int repoIndex, String repoName, String workDir) {
+        members.add(Integer.valueOf(repoIndex));
+        memberNames.add(repoName);
+        workDirs.add(workDir);
+    }
+
+    public int getIndex() { return index; }
+
+    public SyncGroup getGroup() { return group; }
+
+    public List<String> getGoals() { return goals; }
+
+    /** repo indexes (job.repos order) */
+    public List<Integer> getMembers() { return members; }
+
+    public List<String> getMemberNames() { return memberNames; }
+
+    /** normalized maven workDir per member ("." = repo root) */
+    public List<String> getWorkDirs() { return workDirs; }
+
+    public boolean isReactorBatch() {
+        return members.size() > 1;
+    }
+
+    public String describeMembers() {
+        return String.join(", ", memberNames);
+    }
+}
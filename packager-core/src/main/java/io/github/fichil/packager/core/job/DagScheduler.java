@@ -0,0 +1,249 @@
+package io.github.fichil.packager.core.job;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks that depend on each other (a DAG) on bounded worker pools.
+ * - every task belongs to a named pool, every pool has a fixed number of worker threads
+ * - a task is submitted once all of its dependencies finished successfully
+ * - ready tasks are submitted in declaration order, so a pool of size 1 keeps the config order
+ * - the first failure cancels everything not started yet and is rethrown from {@link #run()}
+ *
+ * Notes:
+ * - no lambda (project constraint)
+ */
+public class DagScheduler {
+
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    private static final class Node {
+        final int index;
+        final String id;
+        final String pool;
+        final Task task;
+        final List<String> dependsOn;
+
+        final List<Node> dependents = new ArrayList<Node>();
+        int remaining;
+
+        Node(int index, String id, String pool, Task task, List<String> dependsOn) {
+            this.index = index;
+            this.id = id;
+            this.pool = pool;
+            this.task = task;
+            this.dependsOn = dependsOn;
+        }
+    }
+
+    private static final class Completion {
+        final Node node;
+        final Throwable error;
+
+        Completion(Node node, Throwable error) {
+            this.node = node;
+            this.error = error;
+        }
+    }
+
+    private final Map<String, Integer> poolLimits = new LinkedHashMap<String, Integer>();
+    private final List<Node> nodes = new ArrayList<Node>();
+    private final Map<String, Node> byId = new HashMap<String, Node>();
+
+    public void definePool(String pool, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Pool limit must be >= 1: " + pool + "=" + limit);
+        }
+        poolLimits.put(pool, Integer.valueOf(limit));
+    }
+
+    /**
+     * @param dependsOn ids of tasks that must finish first; may reference tasks added later
+     */
+    public void add(String id, String pool, Task task, List<String> dependsOn) {
+        if (byId.containsKey(id)) {
+            throw new IllegalArgumentException("Duplicate task id: " + id);
+        }
+        if (!poolLimits.containsKey(pool)) {
+            throw new IllegalArgumentException("Unknown pool: " + pool + " (task=" + id + ")");
+        }
+        List<String> deps = dependsOn == null ? new ArrayList<String>() : new ArrayList<String>(dependsOn);
+        Node n = new Node(nodes.size(), id, pool, task, deps);
+        nodes.add(n);
+        byId.put(id, n);
+    }
+
+    public boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    public void run() throws Exception {
+        if (nodes.isEmpty()) return;
+
+        link();
+
+        Map<String, ExecutorService> executors = new HashMap<String, ExecutorService>();
+        for (Map.Entry<String, Integer> e : poolLimits.entrySet()) {
+            executors.put(e.getKey(), Executors.newFixedThreadPool(e.getValue().intValue(), threadFactory(e.getKey())));
+        }
+
+        LinkedBlockingQueue<Completion> completions = new LinkedBlockingQueue<Completion>();
+        Throwable failure = null;
+        int finished = 0;
+
+        try {
+            for (int i = 0; i < nodes.size(); i++) {
+                Node n = nodes.get(i);
+                if (n.remaining == 0) {
+                    submit(n, executors, completions);
+                }
+            }
+
+            while (finished < nodes.size()) {
+                Completion c = completions.take();
+                finished++;
+
+                if (c.error != null) {
+                    failure = c.error;
+                    break;
+                }
+
+                // dependents 按声明顺序加入，保证单线程时与配置顺序一致
+                for (int i = 0; i < c.node.dependents.size(); i++) {
+                    Node d = c.node.dependents.get(i);
+                    d.remaining--;
+                    if (d.remaining == 0) {
+                        submit(d, executors, completions);
+                    }
+                }
+            }
+        } finally {
+            for (ExecutorService ex : executors.values()) {
+                if (failure != null) {
+                    ex.shutdownNow();
+                } else {
+                    ex.shutdown();
+                }
+            }
+            for (ExecutorService ex : executors.values()) {
+                while (!ex.awaitTermination(1, TimeUnit.SECONDS)) {
+                    // wait for running tasks (and their processes) to stop before returning
+                }
+            }
+        }
+
+        if (failure != null) {
+            if (failure instanceof Exception) throw (Exception) failure;
+            throw new RuntimeException(failure);
+        }
+    }
+
+    private void link() {
+        for (int i = 0; i < nodes.size(); i++) {
+            Node n = nodes.get(i);
+            n.remaining = 0;
+            n.dependents.clear();
+        }
+        for (int i = 0; i < nodes.size(); i++) {
+            Node n = nodes.get(i);
+            for (int k = 0; k < n.dependsOn.size(); k++) {
+                Node dep = byId.get(n.dependsOn.get(k));
+                if (dep == null) {
+                    throw new IllegalArgumentException("Task " + n.id + " depends on unknown task: " + n.dependsOn.get(k));
+                }
+                if (dep == n) {
+                    throw new IllegalArgumentException("Task depends on itself: " + n.id);
+                }
+                dep.dependents.add(n);
+                n.remaining++;
+            }
+        }
+        for (int i = 0; i < nodes.size(); i++) {
+            sortByIndex(nodes.get(i).dependents);
+        }
+        checkAcyclic();
+    }
+
+    // Kahn: 能拓扑排序完所有节点才算无环
+    private void checkAcyclic() {
+        int[] remaining = new int[nodes.size()];
+        List<Node> queue = new ArrayList<Node>();
+        for (int i = 0; i < nodes.size(); i++) {
+            remaining[i] = nodes.get(i).remaining;
+            if (remaining[i] == 0) queue.add(nodes.get(i));
+        }
+
+        int visited = 0;
+        while (visited < queue.size()) {
+            Node n = queue.get(visited++);
+            for (int i = 0; i < n.dependents.size(); i++) {
+                Node d = n.dependents.get(i);
+                if (--remaining[d.index] == 0) queue.add(d);
+            }
+        }
+
+        if (visited < nodes.size()) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < nodes.size(); i++) {
+                if (remaining[i] > 0) {
+                    if (sb.length() > 0) sb.append(", ");
+                    sb.append(nodes.get(i).id);
+                }
+            }
+            throw new IllegalArgumentException("Dependency cycle detected between: " + sb);
+        }
+    }
+
+    private static void sortByIndex(List<Node> list) {
+        // insertion sort: lists are tiny
+        for (int i = 1; i < list.size(); i++) {
+            Node cur = list.get(i);
+            int j = i - 1;
+            while (j >= 0 && list.get(j).index > cur.index) {
+                list.set(j + 1, list.get(j));
+                j--;
+            }
+            list.set(j + 1, cur);
+        }
+    }
+
+    private static void submit(final Node n,
+                               Map<String, ExecutorService> executors,
+                               final LinkedBlockingQueue<Completion> completions) {
+        executors.get(n.pool).execute(new Runnable() {
+            @Override
+            public void run() {
+                Throwable error = null;
+                try {
+                    n.task.run();
+                } catch (Throwable t) {
+                    error = t;
+                }
+                completions.add(new Completion(n, error));
+            }
+        });
+    }
+
+    private static ThreadFactory threadFactory(final String pool) {
+        final AtomicInteger seq = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "packager-" + pool + "-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
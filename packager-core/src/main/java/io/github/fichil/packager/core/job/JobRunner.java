@@ -2,30 +2,64 @@ package io.github.fichil.packager.core.job;
 
 import io.github.fichil.packager.core.artifact.ArtifactCopier;
 import io.github.fichil.packager.core.artifact.ArtifactFinder;
+import io.github.fichil.packager.core.artifact.ArtifactStore;
+import io.github.fichil.packager.core.artifact.ReleaseBundle;
+import io.github.fichil.packager.core.cache.BuildStateCache;
+import io.github.fichil.packager.core.cache.LastSuccess;
+import io.github.fichil.packager.core.cache.RemoteBuildCache;
 import io.github.fichil.packager.core.config.PackagerConfig;
 import io.github.fichil.packager.core.config.VarResolver;
+import io.github.fichil.packager.core.exec.ProcessExecutor;
 import io.github.fichil.packager.core.git.GitExecutor;
 import io.github.fichil.packager.core.maven.MavenExecutor;
+import io.github.fichil.packager.core.maven.PomOutputs;
+import io.github.fichil.packager.core.metrics.RunMetrics;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class JobRunner {
 
+    private static final String POOL_GIT = "git";
+    private static final String POOL_BUILD = "build";
+
     private final GitExecutor git;
     private final MavenExecutor mvn;
     private final ArtifactCopier copier;
-    private final Map<String, String> vars;
+    private final VarResolver vars;
     private final boolean dryRun; // 新增
     private final ArtifactFinder artifactFinder;
+    private String jobName; // bundle manifest
+    private Integer parallelism; // null = job config
+    private Integer syncParallelism; // null = 1
+    private boolean reactorBatch;
+    private BuildStateCache buildCache; // null = always build
+    private RemoteBuildCache remoteCache; // null = local cache only
+    private RunMetrics metrics; // null = no timing
+    private String metricsJob;
+    private WorkingCopyLocks workingCopyLocks; // null = job runs alone
+    private String lockOwner;
+    private ArtifactStore store; // null = plain copies
+    private String storeRunId;
+    private int storeKeep;
+    private boolean affectedOnly; // true = only repos with new commits + their dependents
+    private boolean sinceLastSuccess; // baseline: last successful run instead of HEAD before pull
+    private LastSuccess lastSuccess; // null = not recorded
+    // 本次运行中 maven 报告的产物：按仓库名 / 按工作目录（不跑 maven 的条目用）
+    private final Map<String, List<File>> producedByRepo = new ConcurrentHashMap<String, List<File>>();
+    private final Map<Integer, List<File>> producedByGroup = new ConcurrentHashMap<Integer, List<File>>();
 
     public JobRunner(GitExecutor git,
                      MavenExecutor mvn,
                      ArtifactFinder artifactFinder,
                      ArtifactCopier copier,
-                     Map<String, String> vars,
+                     VarResolver vars,
                      boolean dryRun) {
         this.git = git;
         this.mvn = mvn;
@@ -35,144 +69,939 @@ public class JobRunner {
         this.dryRun = dryRun;
     }
 
-    public void runJob(PackagerConfig.JobConfig job, boolean skipTests) throws Exception {
-        if (job == null) throw new IllegalArgumentException("Job is null");
+    /**
+     * Override job.parallelism (e.g. from the CLI); null = use job config.
+     */
+    public void setParallelism(Integer parallelism) {
+        if (parallelism != null && parallelism.intValue() < 1) {
+            throw new IllegalArgumentException("parallelism must be >= 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
 
-        Map<String, File> repoNameToDir = new HashMap<String, File>();
+    /**
+     * Max git clone/fetch running at the same time (git.parallelism in package.yml); null = 1.
+     */
+    public void setSyncParallelism(Integer syncParallelism) {
+        if (syncParallelism != null && syncParallelism.intValue() < 1) {
+            throw new IllegalArgumentException("sync parallelism must be >= 1: " + syncParallelism);
+        }
+        this.syncParallelism = syncParallelism;
+    }
 
-        // 1) repos
-        List<PackagerConfig.RepoConfig> repos = job.getRepos();
-        if (repos != null) {
-            for (int i = 0; i < repos.size(); i++) {
-                PackagerConfig.RepoConfig r = repos.get(i);
+    /**
+     * maven.batch: build consecutive module entries of one working copy in a single reactor invocation.
+     */
+    public void setReactorBatch(boolean reactorBatch) {
+        this.reactorBatch = reactorBatch;
+    }
 
-                String name = r.getName();
-                String repoPath = VarResolver.resolve(r.getPath(), vars);
-                String branch = VarResolver.resolve(r.getBranch(), vars);
-                String gitUrl = VarResolver.resolve(r.getGitUrl(), vars);
+    /**
+     * Skip maven steps whose fingerprint (HEAD + command + upstream) matches the last success.
+     * null = always build.
+     */
+    public void setBuildCache(BuildStateCache buildCache) {
+        this.buildCache = buildCache;
+    }
 
-                String shallowStr = VarResolver.resolve(r.getShallow(), vars);
-                boolean shallow = "true".equalsIgnoreCase(shallowStr); // 或 Boolean.parseBoolean
+    /**
+     * Shared cache of several machines, consulted after a local miss (needs the local build cache).
+     */
+    public void setRemoteCache(RemoteBuildCache remoteCache) {
+        this.remoteCache = remoteCache;
+    }
 
-                if (repoPath == null || repoPath.trim().isEmpty()) {
-                    throw new IllegalArgumentException("Repo path is empty (repo=" + name + ")");
-                }
-                if (branch == null || branch.trim().isEmpty()) {
-                    throw new IllegalArgumentException("Repo branch is empty (repo=" + name + ")");
-                }
+    /**
+     * Record sync/build/artifacts timing of every repo under the given job name.
+     */
+    public void setMetrics(RunMetrics metrics, String job) {
+        this.metrics = metrics;
+        this.metricsJob = job;
+    }
 
-                File repoDir = new File(repoPath);
+    /**
+     * Jobs running at the same time share one lock registry; the job locks its working copies for the whole run.
+     */
+    public void setWorkingCopyLocks(WorkingCopyLocks workingCopyLocks, String owner) {
+        this.workingCopyLocks = workingCopyLocks;
+        this.lockOwner = owner;
+    }
 
-                // 1.1) 不存在则 clone
-                if (!repoDir.exists()) {
-                    if (gitUrl == null || gitUrl.trim().isEmpty()) {
-                        throw new IllegalStateException("Repo not exist and gitUrl not set: " + repoPath + " (repo=" + name + ")");
-                    }
-                    File parent = repoDir.getParentFile();
-                    if (parent != null && !parent.exists() && !dryRun) parent.mkdirs();
+    /**
+     * Job name written into the release bundle manifest.
+     */
+    public void setJobName(String jobName) {
+        this.jobName = jobName;
+    }
 
-                    System.out.println("[PLAN] git clone" + (shallow ? " --depth 1 " : " ") + gitUrl + " -> " + repoDir.getAbsolutePath());
+    /**
+     * Publish artifacts through the content-addressed store under this run id, keeping {@code keep} runs per job.
+     */
+    public void setArtifactStore(ArtifactStore store, String runId, int keep) {
+        if (keep < 1) throw new IllegalArgumentException("store.keep must be >= 1: " + keep);
+        this.store = store;
+        this.storeRunId = runId;
+        this.storeKeep = keep;
+    }
 
-                    if (!dryRun) {
-                        git.cloneRepo(gitUrl, repoDir, shallow);
-                    } else {
-                        // dry-run: 假定 clone 成功，允许后续 plan 继续输出
-                        repoNameToDir.put(name, repoDir);
-                        // 并且不要继续做真实校验/checkout/mvn
-                        continue;
-                    }
-                }
+    /**
+     * Build only working copies whose HEAD moved (and everything downstream of them); the others take the
+     * outputs the build cache recorded for their HEAD, even when built with other mvn options (a plain cache
+     * hit needs the same command). Baseline is the HEAD before pull, or with {@code sinceLastSuccess} the HEAD
+     * of the job's last successful run. Needs the build cache; without it everything is built.
+     */
+    public void setAffectedOnly(boolean affectedOnly, boolean sinceLastSuccess) {
+        this.affectedOnly = affectedOnly || sinceLastSuccess;
+        this.sinceLastSuccess = sinceLastSuccess;
+    }
 
+    /**
+     * Where the HEADs of successful runs are recorded (needed by sinceLastSuccess).
+     */
+    public void setLastSuccess(LastSuccess lastSuccess) {
+        this.lastSuccess = lastSuccess;
+    }
 
+    public void runJob(PackagerConfig.JobConfig job, boolean skipTests) throws Exception {
+        if (job == null) throw new IllegalArgumentException("Job is null");
 
-                if (!repoDir.isDirectory()) {
-                    throw new IllegalArgumentException("Repo path is not a directory: " + repoPath + " (repo=" + name + ")");
+        List<SyncGroup> groups = RepoGraph.syncGroups(job.getRepos(), vars);
+        if (workingCopyLocks == null || groups.isEmpty()) {
+            execute(job, groups, skipTests);
+            return;
+        }
+
+        List<File> paths = new ArrayList<File>();
+        for (int i = 0; i < groups.size(); i++) {
+            paths.add(workingCopyOf(groups.get(i)));
+        }
+        WorkingCopyLocks.Lease lease = workingCopyLocks.lockAll(paths, lockOwner);
+        try {
+            execute(job, groups, skipTests);
+        } finally {
+            lease.close();
+        }
+    }
+
+    private void execute(PackagerConfig.JobConfig job, List<SyncGroup> groups, boolean skipTests) throws Exception {
+
+        final Map<String, File> repoNameToDir = new ConcurrentHashMap<String, File>();
+        Map<String, String> successHeads = new HashMap<String, String>(); // working copy -> HEAD, clean ones only
+        producedByRepo.clear();
+        producedByGroup.clear();
+
+        // 1) repos: 先 sync（每个工作目录只 git 一次，并发受 git 池限制），sync 完成的仓库即可进入 build（mvn）
+        final List<PackagerConfig.RepoConfig> repos = job.getRepos();
+        if (repos != null && !repos.isEmpty()) {
+            List<List<Integer>> deps = RepoGraph.dependencies(repos, vars);
+            final Map<Integer, File> syncedDirs = new ConcurrentHashMap<Integer, File>();
+            final Map<Integer, String> groupHeads = new ConcurrentHashMap<Integer, String>();   // "" = unknown/dirty
+            final Map<Integer, String> unitFingerprints = new ConcurrentHashMap<Integer, String>(); // "" = not cacheable
+            final Map<Integer, String> unitRemoteKeys = new ConcurrentHashMap<Integer, String>();   // "" = not cacheable
+            final Map<Integer, Boolean> changedGroups = new ConcurrentHashMap<Integer, Boolean>();
+            final Map<Integer, Boolean> affectedUnits = new ConcurrentHashMap<Integer, Boolean>();
+            final boolean trackHeads = buildCache != null || affectedOnly || lastSuccess != null;
+            final Map<String, String> baseline = affectedOnly && sinceLastSuccess
+                    ? (lastSuccess == null ? new HashMap<String, String>() : lastSuccess.heads(jobName))
+                    : null;
+
+            DagScheduler scheduler = new DagScheduler();
+            scheduler.definePool(POOL_GIT, syncParallelism == null ? 1 : syncParallelism.intValue());
+            scheduler.definePool(POOL_BUILD, resolveParallelism(job));
+
+            for (int g = 0; g < groups.size(); g++) {
+                final SyncGroup group = groups.get(g);
+                scheduler.add(syncTaskId(g), POOL_GIT, new DagScheduler.Task() {
+                    @Override
+                    public void run() throws Exception {
+                        String label = label(group.getMemberNames().subList(0, 1));
+                        ProcessExecutor.setThreadLabel(label);
+                        RunMetrics.Timer timer = startPhase(label, "sync");
+                        try {
+                            // 对比基准：pull 之前的 HEAD，或上次成功运行时的 HEAD
+                            String before = null;
+                            if (affectedOnly) {
+                                File wc = workingCopyOf(group);
+                                before = baseline != null ? baseline.get(wc.getAbsolutePath())
+                                        : (wc.isDirectory() ? headOf(wc) : null);
+                            }
+                            File dir = syncRepo(group, repoNameToDir);
+                            if (dir != null) {
+                                syncedDirs.put(Integer.valueOf(group.getIndex()), dir);
+                                if (trackHeads) {
+                                    groupHeads.put(Integer.valueOf(group.getIndex()), cacheableHead(dir));
+                                }
+                                if (affectedOnly) {
+                                    boolean changed = changed(group, before, groupHeads.get(Integer.valueOf(group.getIndex())));
+                                    changedGroups.put(Integer.valueOf(group.getIndex()), Boolean.valueOf(changed));
+                                }
+                            }
+                            if (timer != null) timer.ok();
+                        } catch (Exception ex) {
+                            if (timer != null) timer.failed();
+                            throw ex;
+                        } finally {
+                            ProcessExecutor.setThreadLabel(null);
+                        }
+                    }
+                }, null);
+            }
+
+            List<BuildUnit> units = RepoGraph.buildUnits(repos, vars, groups, reactorBatch);
+            int[] unitOf = new int[repos.size()];
+            Arrays.fill(unitOf, -1);
+            for (int u = 0; u < units.size(); u++) {
+                for (int k = 0; k < units.get(u).getMembers().size(); k++) {
+                    unitOf[units.get(u).getMembers().get(k).intValue()] = u;
+                }
+            }
+
+            for (int u = 0; u < units.size(); u++) {
+                final BuildUnit unit = units.get(u);
+                final Integer groupIndex = Integer.valueOf(unit.getGroup().getIndex());
+                final boolean skip = skipTests;
+
+                // build: 所在工作目录的 sync + 依赖仓库的 build（不跑 maven 的依赖只等它的 sync）
+                List<String> buildDeps = new ArrayList<String>();
+                buildDeps.add(syncTaskId(groupIndex.intValue()));
+                final List<Integer> upstreamUnits = new ArrayList<Integer>();
+                final List<Integer> upstreamGroups = new ArrayList<Integer>();
+                for (int m = 0; m < unit.getMembers().size(); m++) {
+                    List<Integer> memberDeps = deps.get(unit.getMembers().get(m).intValue());
+                    for (int k = 0; k < memberDeps.size(); k++) {
+                        int d = memberDeps.get(k).intValue();
+                        if (unitOf[d] == u) continue;
+                        if (unitOf[d] >= 0) {
+                            if (!upstreamUnits.contains(Integer.valueOf(unitOf[d]))) {
+                                upstreamUnits.add(Integer.valueOf(unitOf[d]));
+                                buildDeps.add(buildTaskId(unitOf[d]));
+                            }
+                        } else {
+                            int dg = RepoGraph.groupOf(groups, d).getIndex();
+                            if (!upstreamGroups.contains(Integer.valueOf(dg))) {
+                                upstreamGroups.add(Integer.valueOf(dg));
+                                if (!buildDeps.contains(syncTaskId(dg))) buildDeps.add(syncTaskId(dg));
+                            }
+                        }
+                    }
                 }
+                scheduler.add(buildTaskId(u), POOL_BUILD, new DagScheduler.Task() {
+                    @Override
+                    public void run() throws Exception {
+                        File dir = syncedDirs.get(groupIndex);
+                        if (dir == null) return;
+
+                        String fp = null;
+                        if (buildCache != null) {
+                            List<String> upstream = new ArrayList<String>();
+                            for (int k = 0; k < upstreamUnits.size(); k++) {
+                                upstream.add(emptyToNull(unitFingerprints.get(upstreamUnits.get(k))));
+                            }
+                            for (int k = 0; k < upstreamGroups.size(); k++) {
+                                upstream.add(emptyToNull(groupHeads.get(upstreamGroups.get(k))));
+                            }
+                            fp = BuildStateCache.fingerprint(emptyToNull(groupHeads.get(groupIndex)),
+                                    mavenArguments(unit, skip), upstream);
+                        }
 
-                repoNameToDir.put(name, repoDir);
+                        // 远程缓存的 key 不含本机路径：gitUrl + HEAD + 模块 + mvn 参数 + 上游 key
+                        String remoteKey = null;
+                        if (remoteCache != null && fp != null && !isBlank(unit.getGroup().getGitUrl())) {
+                            List<String> upstream = new ArrayList<String>();
+                            for (int k = 0; k < upstreamUnits.size(); k++) {
+                                upstream.add(emptyToNull(unitRemoteKeys.get(upstreamUnits.get(k))));
+                            }
+                            for (int k = 0; k < upstreamGroups.size(); k++) {
+                                upstream.add(emptyToNull(groupHeads.get(upstreamGroups.get(k))));
+                            }
+                            remoteKey = RemoteBuildCache.key(unit.getGroup().getGitUrl(), unit.getWorkDirs(),
+                                    mavenArguments(unit, skip), emptyToNull(groupHeads.get(groupIndex)), upstream);
+                        }
 
-                // 1.2) checkout & pull
-                System.out.println("[PLAN] git checkout/pull " + branch + " (" + name + ")");
-                git.checkoutAndPull(repoDir, branch);
+                        // 自己的 HEAD 没动、上游也都没重建：沿用上次的产物
+                        boolean affected = true;
+                        if (affectedOnly) {
+                            // 状态未知（dry-run 未 clone 等）按变化处理
+                            affected = !Boolean.FALSE.equals(changedGroups.get(groupIndex));
+                            for (int k = 0; k < upstreamUnits.size() && !affected; k++) {
+                                affected = !Boolean.FALSE.equals(affectedUnits.get(upstreamUnits.get(k)));
+                            }
+                            for (int k = 0; k < upstreamGroups.size() && !affected; k++) {
+                                affected = !Boolean.FALSE.equals(changedGroups.get(upstreamGroups.get(k)));
+                            }
+                        }
 
-                // 1.3) maven
-                if (r.getMaven() != null && r.getMaven().getGoals() != null && !r.getMaven().getGoals().isEmpty()) {
-                    String workDir = r.getMaven().getWorkDir() != null ? r.getMaven().getWorkDir() : ".";
-                    workDir = VarResolver.resolve(workDir, vars);
+                        String label = label(unit.getMemberNames());
+                        ProcessExecutor.setThreadLabel(label);
+                        RunMetrics.Timer timer = startPhase(label, "build");
+                        try {
+                            BuildStateCache.Entry reused = affected ? null
+                                    : reuseUnit(unit, dir, emptyToNull(groupHeads.get(groupIndex)));
+                            if (reused != null && (fp == null || !fp.equals(reused.getFingerprint()))) {
+                                // 沿用的产物是用别的 mvn 参数构建的：下游的指纹跟着它，远程 key 不再成立
+                                fp = reused.getFingerprint();
+                                remoteKey = null;
+                            }
+                            boolean built = reused == null && buildUnit(unit, dir, skip, fp, remoteKey);
+                            // 没能沿用而重新构建了：下游也要按变化处理
+                            if (affectedOnly) {
+                                affectedUnits.put(Integer.valueOf(unit.getIndex()), Boolean.valueOf(affected || built));
+                            }
+                            if (timer != null) {
+                                if (built) {
+                                    timer.ok();
+                                } else {
+                                    timer.skipped();
+                                }
+                            }
+                        } catch (Exception ex) {
+                            if (timer != null) timer.failed();
+                            throw ex;
+                        } finally {
+                            ProcessExecutor.setThreadLabel(null);
+                        }
+                        unitFingerprints.put(Integer.valueOf(unit.getIndex()), fp == null ? "" : fp);
+                        unitRemoteKeys.put(Integer.valueOf(unit.getIndex()), remoteKey == null ? "" : remoteKey);
+                    }
+                }, buildDeps);
+            }
 
-                    File mvnDir = ".".equals(workDir) ? repoDir : new File(repoDir, workDir);
-                    List<String> goals = r.getMaven().getGoals();
+            scheduler.run();
 
-                    System.out.println("[PLAN] mvn " + goals + " (dir=" + mvnDir.getAbsolutePath() + ")");
-                    mvn.runGoals(mvnDir, goals, skipTests);
+            // bootstrap 这类不跑 maven 的条目：用同一工作目录下所有模块的产物
+            for (int g = 0; g < groups.size(); g++) {
+                List<File> files = producedByGroup.get(Integer.valueOf(groups.get(g).getIndex()));
+                if (files == null) continue;
+                List<String> names = groups.get(g).getMemberNames();
+                for (int k = 0; k < names.size(); k++) {
+                    if (names.get(k) != null && !producedByRepo.containsKey(names.get(k))) {
+                        producedByRepo.put(names.get(k), files);
+                    }
                 }
             }
+
+            for (int g = 0; g < groups.size(); g++) {
+                String head = groupHeads.get(Integer.valueOf(groups.get(g).getIndex()));
+                if (!isBlank(head)) successHeads.put(workingCopyOf(groups.get(g)).getAbsolutePath(), head);
+            }
         }
 
         // 2) artifacts
         PackagerConfig.ArtifactsConfig artifacts = job.getArtifacts();
         if (artifacts != null && artifacts.getFiles() != null && !artifacts.getFiles().isEmpty()) {
-            String outDirStr = VarResolver.resolve(artifacts.getOutputDir(), vars);
+            String outDirStr = vars.resolve(artifacts.getOutputDir());
             if (outDirStr == null || outDirStr.trim().isEmpty()) {
                 throw new IllegalArgumentException("artifacts.outputDir is empty");
             }
             File outDir = new File(outDirStr);
 
-            for (int i = 0; i < artifacts.getFiles().size(); i++) {
-                PackagerConfig.ArtifactFile f = artifacts.getFiles().get(i);
+            String copyParallelism = vars.resolve(artifacts.getParallelism());
+            if (copyParallelism != null && !copyParallelism.trim().isEmpty()) {
+                copier.setParallelism(parsePositive(copyParallelism, "artifacts.parallelism"));
+            }
+
+            String bundle = vars.resolve(artifacts.getBundle());
+            boolean bundleOnly = "true".equalsIgnoreCase(vars.resolve(artifacts.getBundleOnly()));
+            if (bundleOnly && isBlank(bundle)) {
+                throw new IllegalArgumentException("artifacts.bundleOnly is set but artifacts.bundle is empty");
+            }
+
+            copier.setMode(vars.resolve(artifacts.getMode()));
 
-                File repoDir = repoNameToDir.get(f.getRepo());
-                if (repoDir == null) {
-                    throw new IllegalArgumentException("Artifact repo not found in job repos: " + f.getRepo());
+            // 先按配置列出所有复制，再一起并发复制（未变化的文件跳过）
+            RunMetrics.Timer timer = startPhase(null, "artifacts");
+            try {
+                List<ArtifactCopier.Copy> plan = new ArrayList<ArtifactCopier.Copy>();
+                for (int i = 0; i < artifacts.getFiles().size(); i++) {
+                    planArtifact(artifacts.getFiles().get(i), repoNameToDir, outDir, plan);
+                }
+                // bundleOnly: 直接从构建目录写进归档，不经过 outputDir
+                if (!bundleOnly) {
+                    if (store == null) {
+                        copier.copyAll(plan);
+                    } else {
+                        // store: 输出目录里是指向对象的链接，相同内容只存一份
+                        if (copyParallelism != null && !copyParallelism.trim().isEmpty()) {
+                            store.setParallelism(parsePositive(copyParallelism, "artifacts.parallelism"));
+                        }
+                        store.publish(jobName, storeRunId, outDir, plan);
+                        store.gc(jobName, storeKeep);
+                    }
                 }
 
-                String fromStr = VarResolver.resolve(f.getFrom(), vars);
-                String toStr = VarResolver.resolve(f.getTo(), vars);
+                long bytes = 0L;
+                for (int i = 0; i < plan.size(); i++) {
+                    bytes += plan.get(i).getBytes();
+                }
+                if (!isBlank(bundle)) {
+                    File archive = new File(bundle.trim());
+                    if (!archive.isAbsolute()) archive = new File(outDir, bundle.trim());
+                    bytes += writeBundle(archive, outDir, plan, repoNameToDir, copyParallelism);
+                }
+                if (timer != null) timer.detail(outDir.getAbsolutePath()).bytes(bytes).ok();
+            } catch (Exception ex) {
+                if (timer != null) timer.failed();
+                throw ex;
+            }
+        }
 
-                File from = new File(repoDir, fromStr);
-                File to = new File(outDir, toStr);
+        // 记下本次成功时各工作目录的 HEAD（--since-last-success 的基准）
+        if (lastSuccess != null && !dryRun && jobName != null) {
+            lastSuccess.record(jobName, successHeads);
+        }
+    }
 
-                if (from.exists() && from.isFile()) {
-                    // 1) 按配置精确复制（保持现有行为）
-                    System.out.println("[PLAN] copy " + from.getAbsolutePath() + " -> " + to.getAbsolutePath());
-                    copier.copy(from, to);
-                } else {
-                    // 2) fallback：配置 from 不存在时，自动发现 war
-                    System.out.println("[WARN] Artifact not found by config: " + from.getAbsolutePath());
-                    System.out.println("[PLAN] fallback to auto-discover war under repo: " + repoDir.getAbsolutePath());
-
-                    List<File> wars = artifactFinder.findWars(repoDir);
-                    if (wars == null || wars.isEmpty()) {
-                        throw new IllegalArgumentException("No war found under repo: " + repoDir.getAbsolutePath()
-                                + " (repo=" + f.getRepo() + ", from=" + fromStr + ")");
-                    }
+    private void planArtifact(PackagerConfig.ArtifactFile f, Map<String, File> repoNameToDir, File outDir,
+                              List<ArtifactCopier.Copy> plan) throws Exception {
+        File repoDir = repoNameToDir.get(f.getRepo());
+        if (repoDir == null) {
+            throw new IllegalArgumentException("Artifact repo not found in job repos: " + f.getRepo());
+        }
 
-                    // 如果 toStr 指定了文件名，则复制到这个文件名；否则复制所有 war 到 output 根
-                    boolean toLooksLikeFile = toStr != null && toStr.toLowerCase().endsWith(".war");
+        String fromStr = vars.resolve(f.getFrom());
+        String toStr = vars.resolve(f.getTo());
 
-                    if (toLooksLikeFile) {
-                        // 单文件输出：选一个最合适的 war
-                        File chosen = chooseBestWar(wars);
-                        System.out.println("[PLAN] copy(auto) " + chosen.getAbsolutePath() + " -> " + to.getAbsolutePath());
-                        copier.copy(chosen, to);
-                    } else {
-                        // 目录输出：全部 war 输出到目录（to 作为目录）
-                        File toDir = new File(outDir, toStr);
-                        for (int k = 0; k < wars.size(); k++) {
-                            File war = wars.get(k);
-                            File target = new File(toDir, war.getName());
-                            System.out.println("[PLAN] copy(auto) " + war.getAbsolutePath() + " -> " + target.getAbsolutePath());
-                            copier.copy(war, target);
-                        }
+        File from = new File(repoDir, fromStr);
+        File to = new File(outDir, toStr);
+        // null = 本次没有构建这个仓库（缓存命中也算构建过），只能扫描 target/
+        List<File> produced = producedByRepo.get(f.getRepo());
+
+        // 1) 按配置精确复制（保持现有行为）
+        if (!isGlob(fromStr) && from.exists() && from.isFile()) {
+            if (produced != null && !produced.isEmpty() && ArtifactFinder.typeOf(from.getName()) != null
+                    && !containsFile(produced, from)) {
+                System.out.println("[WARN] " + from.getAbsolutePath() + " was not produced by this build, may be stale"
+                        + " (repo=" + f.getRepo() + ")");
+            }
+            System.out.println("[PLAN] copy " + from.getAbsolutePath() + " -> " + to.getAbsolutePath());
+            plan.add(new ArtifactCopier.Copy(f.getRepo(), from, to));
+            return;
+        }
+
+        // 2) from 是 glob（**/target/*-api.war）：按模式匹配；否则 fallback：配置 from 不存在时，按同类型（默认 war）自动发现
+        boolean glob = isGlob(fromStr);
+        String type = ArtifactFinder.typeOf(fromStr);
+        if (type == null) type = ".war";
+
+        if (!glob) System.out.println("[WARN] Artifact not found by config: " + from.getAbsolutePath());
+
+        // 优先用 maven 报告的产物，不扫目录；没有构建信息时才扫描 target/
+        List<File> wars = null;
+        if (produced != null && !produced.isEmpty()) {
+            wars = glob ? ArtifactFinder.match(produced, repoDir, fromStr) : ArtifactFinder.ofType(produced, type);
+            if (wars.isEmpty()) {
+                System.out.println("[WARN] no " + (glob ? "match for " + fromStr : type.substring(1))
+                        + " among the build outputs, scanning repo (repo=" + f.getRepo() + ")");
+            } else {
+                System.out.println("[PLAN] " + (glob ? "match " + fromStr : "use " + type.substring(1))
+                        + " from build outputs of " + f.getRepo());
+            }
+        }
+        if (wars == null || wars.isEmpty()) {
+            RunMetrics.Timer discover = startPhase(f.getRepo(), "discover");
+            if (glob) {
+                System.out.println("[PLAN] match " + fromStr + " under repo: " + repoDir.getAbsolutePath());
+                wars = artifactFinder.find(repoDir, fromStr);
+            } else {
+                System.out.println("[PLAN] fallback to auto-discover " + type.substring(1) + " under repo: " + repoDir.getAbsolutePath());
+                wars = artifactFinder.findByType(repoDir, type);
+            }
+            if (discover != null) discover.detail(repoDir.getAbsolutePath()).ok();
+        }
+        if (wars == null || wars.isEmpty()) {
+            throw new IllegalArgumentException("No " + (glob ? "match" : type.substring(1)) + " found under repo: "
+                    + repoDir.getAbsolutePath() + " (repo=" + f.getRepo() + ", from=" + fromStr + ")");
+        }
+
+        // 如果 toStr 指定了文件名，则复制到这个文件名；否则复制所有匹配的包到 output 下的 to 目录
+        boolean toLooksLikeFile = toStr != null && ArtifactFinder.typeOf(toStr) != null;
+
+        if (toLooksLikeFile) {
+            // 单文件输出：选一个最合适的 war
+            File chosen = chooseBestWar(wars);
+            if (wars.size() > 1) {
+                System.out.println("[WARN] " + wars.size() + " candidates for " + toStr + ", using the newest (repo=" + f.getRepo() + ")");
+            }
+            System.out.println("[PLAN] copy(auto) " + chosen.getAbsolutePath() + " -> " + to.getAbsolutePath());
+            plan.add(new ArtifactCopier.Copy(f.getRepo(), chosen, to));
+        } else {
+            // 目录输出：全部 war 输出到目录（to 作为目录）
+            File toDir = new File(outDir, toStr);
+            for (int k = 0; k < wars.size(); k++) {
+                File war = wars.get(k);
+                File target = new File(toDir, war.getName());
+                System.out.println("[PLAN] copy(auto) " + war.getAbsolutePath() + " -> " + target.getAbsolutePath());
+                plan.add(new ArtifactCopier.Copy(f.getRepo(), war, target));
+            }
+        }
+    }
+
+    /**
+     * @return archive size in bytes (0 in dry-run)
+     */
+    private long writeBundle(File archive, File outDir, List<ArtifactCopier.Copy> plan, Map<String, File> repoNameToDir,
+                             String parallelism) throws Exception {
+        Map<String, String> commits = new HashMap<String, String>();
+        List<ReleaseBundle.Entry> entries = new ArrayList<ReleaseBundle.Entry>();
+        Path root = outDir.getAbsoluteFile().toPath().normalize();
+        for (int i = 0; i < plan.size(); i++) {
+            ArtifactCopier.Copy c = plan.get(i);
+            Path to = c.getTo().getAbsoluteFile().toPath().normalize();
+            String path = (to.startsWith(root) ? root.relativize(to) : to.getFileName()).toString().replace('\\', '/');
+
+            if (c.getRepo() != null && !commits.containsKey(c.getRepo())) {
+                File dir = repoNameToDir.get(c.getRepo());
+                commits.put(c.getRepo(), dir == null || dryRun ? null : headOf(dir));
+            }
+            entries.add(new ReleaseBundle.Entry(path, c.getRepo(), commits.get(c.getRepo()), c.getFrom()));
+        }
+
+        ReleaseBundle writer = new ReleaseBundle(dryRun);
+        if (!isBlank(parallelism)) writer.setParallelism(parsePositive(parallelism, "artifacts.parallelism"));
+
+        RunMetrics.Timer timer = startPhase(null, "bundle");
+        try {
+            writer.write(archive, jobName, entries);
+            long size = dryRun ? 0L : archive.length();
+            if (timer != null) timer.detail(archive.getAbsolutePath()).bytes(size).ok();
+            return size;
+        } catch (Exception ex) {
+            if (timer != null) timer.failed();
+            throw ex;
+        }
+    }
+
+    private RunMetrics.Timer startPhase(String repo, String step) {
+        return metrics == null ? null : metrics.start(metricsJob, repo, RunMetrics.KIND_PHASE, step);
+    }
+
+    /**
+     * Directory the group is built in: the branch worktree in worktree mode, otherwise the configured path.
+     */
+    private File workingCopyOf(SyncGroup group) {
+        if (git.isWorktreeMode() && !isBlank(group.getGitUrl())) {
+            return git.worktreeDir(group.getGitUrl(), group.getBranch());
+        }
+        return group.getRepoDir();
+    }
+
+    private static boolean isBlank(String s) {
+        return s == null || s.trim().isEmpty();
+    }
+
+    /**
+     * Clone (if missing) + checkout/pull, once for all entries of the working copy.
+     *
+     * @return working copy ready for maven, or null when nothing should be built (dry-run clone)
+     */
+    private File syncRepo(SyncGroup group, Map<String, File> repoNameToDir) throws Exception {
+        String names = group.describeMembers();
+        File repoDir = group.getRepoDir();
+        String branch = group.getBranch();
+        String gitUrl = group.getGitUrl();
+        boolean shallow = group.isShallow();
+
+        // 1.0) worktree 模式：共享对象库 + 每个分支一个工作树（path 不再使用）
+        if (git.isWorktreeMode() && !isBlank(gitUrl)) {
+            File worktree = git.worktreeDir(gitUrl, branch);
+            System.out.println("[PLAN] git worktree " + branch + " of " + gitUrl + " -> " + worktree.getAbsolutePath() + " (" + names + ")");
+            if (dryRun && !worktree.isDirectory()) {
+                registerDirs(group, worktree, repoNameToDir);
+                return null;
+            }
+            worktree = git.syncWorktree(gitUrl, branch, shallow, group.getCloneFilter(), group.getSparsePaths());
+            registerDirs(group, worktree, repoNameToDir);
+            return worktree;
+        }
+
+        // 1.1) 不存在则 clone
+        if (!repoDir.exists()) {
+            if (gitUrl == null || gitUrl.trim().isEmpty()) {
+                throw new IllegalStateException("Repo not exist and gitUrl not set: " + repoDir.getPath() + " (repo=" + names + ")");
+            }
+            File parent = repoDir.getParentFile();
+            if (parent != null && !parent.exists() && !dryRun) parent.mkdirs();
+
+            System.out.println("[PLAN] git clone" + (shallow ? " --depth 1 " : " ")
+                    + (group.getCloneFilter() != null ? "--filter=" + group.getCloneFilter() + " " : "")
+                    + gitUrl + " -> " + repoDir.getAbsolutePath());
+
+            if (!dryRun) {
+                git.cloneRepo(gitUrl, repoDir, shallow, group.getCloneFilter(), group.getSparsePaths() != null);
+            } else {
+                // dry-run: 假定 clone 成功，允许后续 plan 继续输出
+                registerDirs(group, repoDir, repoNameToDir);
+                // 并且不要继续做真实校验/checkout/mvn
+                return null;
+            }
+        }
+
+        if (!repoDir.isDirectory()) {
+            throw new IllegalArgumentException("Repo path is not a directory: " + repoDir.getPath() + " (repo=" + names + ")");
+        }
+
+        registerDirs(group, repoDir, repoNameToDir);
+
+        // sparse：只检出这些 workDir（已是同一组路径时不动）
+        if (group.getSparsePaths() != null) {
+            System.out.println("[PLAN] git sparse-checkout " + group.getSparsePaths() + " (" + names + ")");
+            git.applySparse(repoDir, group.getSparsePaths());
+        }
+
+        // 1.2) checkout & pull
+        System.out.println("[PLAN] git checkout/pull " + branch + " (" + names + ")");
+        git.checkoutAndPull(repoDir, branch);
+        return repoDir;
+    }
+
+    private static void registerDirs(SyncGroup group, File repoDir, Map<String, File> repoNameToDir) {
+        for (int i = 0; i < group.getMemberNames().size(); i++) {
+            String name = group.getMemberNames().get(i);
+            if (name != null) repoNameToDir.put(name, repoDir);
+        }
+    }
+
+    /**
+     * Affected mode: did the working copy get new commits since the baseline? Dirty or unknown counts as changed.
+     */
+    private boolean changed(SyncGroup group, String before, String after) {
+        String names = group.describeMembers();
+        if (isBlank(after)) {
+            System.out.println("[PLAN] " + names + ": local changes or unknown HEAD, rebuild");
+            return true;
+        }
+        if (before == null) {
+            System.out.println("[PLAN] " + names + ": no " + (sinceLastSuccess ? "successful run" : "previous checkout")
+                    + " to compare with, rebuild at " + shortSha(after));
+            return true;
+        }
+        if (!before.equals(after)) {
+            System.out.println("[PLAN] " + names + ": " + shortSha(before) + " -> " + shortSha(after) + ", rebuild with dependents");
+            return true;
+        }
+        System.out.println("[PLAN] " + names + ": unchanged at " + shortSha(after));
+        return false;
+    }
+
+    /**
+     * Affected mode, unit neither changed nor downstream of a change: take the outputs the build cache recorded
+     * for this very HEAD instead of running maven, whatever mvn options built them. Unlike a plain cache hit
+     * the command fingerprint (goals options, -T, -DskipTests, upstream fingerprints) doesn't have to match;
+     * without the build cache nothing ties target/ to a commit, so the unit is built.
+     *
+     * @param head current HEAD of the working copy, null = dirty or unknown
+     * @return the reused entry, null when there is nothing to reuse (never built here, other HEAD, outputs
+     * cleaned, other branch installed)
+     */
+    private BuildStateCache.Entry reuseUnit(BuildUnit unit, File repoDir, String head) {
+        if (buildCache == null) {
+            System.out.println("[INFO] no build cache to tie previous outputs of " + unit.describeMembers()
+                    + " to HEAD, building");
+            return null;
+        }
+        String cacheKey = BuildStateCache.key(repoDir.getAbsolutePath(), unit.getWorkDirs(), unit.getGoals());
+        BuildStateCache.Entry last = buildCache.latest(cacheKey, installId(unit));
+        if (last == null || head == null || !head.equals(last.getHead())) {
+            System.out.println("[INFO] no reusable build of " + unit.describeMembers()
+                    + (head == null ? "" : " at " + shortSha(head)) + " in the build cache, building");
+            return null;
+        }
+        List<File> files = new ArrayList<File>();
+        if (last.getArtifacts() != null) {
+            for (int i = 0; i < last.getArtifacts().size(); i++) {
+                files.add(new File(last.getArtifacts().get(i)));
+            }
+        }
+        System.out.println("[SKIP] mvn " + unit.getGoals() + " not affected, reusing " + files.size()
+                + " output(s) of HEAD=" + shortSha(head) + " (repos=" + unit.describeMembers() + ")");
+        recordProduced(unit, repoDir, files);
+        return last;
+    }
+
+    /**
+     * @param fingerprint build cache fingerprint, null = not cacheable (cache off, dirty tree, unknown upstream)
+     * @param remoteKey   remote cache key, null = remote cache not used for this unit
+     * @return false when skipped by the build cache
+     */
+    private boolean buildUnit(BuildUnit unit, File repoDir, boolean skipTests, String fingerprint,
+                              String remoteKey) throws Exception {
+        // 1.3) maven
+        List<String> goals = unit.getGoals();
+        String cacheKey = BuildStateCache.key(repoDir.getAbsolutePath(), unit.getWorkDirs(), goals);
+        String installId = installId(unit);
+
+        if (fingerprint != null) {
+            BuildStateCache.Entry hit = buildCache.lookup(cacheKey, fingerprint, installId);
+            if (hit != null) {
+                System.out.println("[SKIP] mvn " + goals + " unchanged since last build (repos=" + unit.describeMembers()
+                        + ", HEAD=" + shortSha(hit.getHead()) + ")");
+                if (hit.getArtifacts() != null) {
+                    List<File> files = new ArrayList<File>();
+                    for (int i = 0; i < hit.getArtifacts().size(); i++) {
+                        File a = new File(hit.getArtifacts().get(i));
+                        if (a.isFile()) files.add(a);
                     }
+                    recordProduced(unit, repoDir, files);
+                }
+                return false;
+            }
+        }
+
+        if (remoteKey != null && restoreRemote(unit, repoDir, skipTests, fingerprint, remoteKey, cacheKey, installId)) {
+            return false;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            if (!unit.isReactorBatch()) {
+                File mvnDir = moduleDir(repoDir, unit.getWorkDirs().get(0));
+
+                System.out.println("[PLAN] mvn " + goals + " (dir=" + mvnDir.getAbsolutePath() + ")");
+                mvn.runGoals(mvnDir, goals, skipTests);
+            } else {
+                // reactor batch: 一次 mvn 构建同一仓库的多个模块
+                System.out.println("[PLAN] mvn " + goals + " -pl " + String.join(",", unit.getWorkDirs()) + " -am"
+                        + " (dir=" + repoDir.getAbsolutePath() + ", repos=" + unit.describeMembers() + ")");
+                try {
+                    mvn.runReactor(repoDir, unit.getWorkDirs(), goals, skipTests);
+                } catch (RuntimeException ex) {
+                    throw new RuntimeException("Maven reactor build failed (repos=" + unit.describeMembers()
+                            + ", modules=" + unit.getWorkDirs() + "): " + ex.getMessage(), ex);
                 }
+            }
+        } catch (Exception ex) {
+            artifactFinder.invalidate(repoDir);
+            if (buildCache != null) buildCache.invalidate(cacheKey);
+            throw ex;
+        }
+        // target/ 变了，之前的扫描结果作废
+        artifactFinder.invalidate(repoDir);
+
+        if (dryRun) return true;
+
+        // 按 pom 的 finalName/packaging 读出每个模块这次生成的包
+        List<File> produced = new ArrayList<File>();
+        for (int i = 0; i < unit.getWorkDirs().size(); i++) {
+            List<File> files = PomOutputs.produced(moduleDir(repoDir, unit.getWorkDirs().get(i)), start);
+            for (int k = 0; k < files.size(); k++) {
+                if (!produced.contains(files.get(k))) produced.add(files.get(k));
+            }
+        }
+        recordProduced(unit, repoDir, produced);
+
+        if (fingerprint != null) {
+            List<String> outputs = new ArrayList<String>();
+            for (int i = 0; i < produced.size(); i++) {
+                outputs.add(produced.get(i).getAbsolutePath());
+            }
 
+            BuildStateCache.Entry e = new BuildStateCache.Entry();
+            e.setFingerprint(fingerprint);
+            e.setHead(headOf(repoDir));
+            e.setCommandHash(BuildStateCache.sha256(String.join(" ", mavenArguments(unit, skipTests))));
+            e.setArtifacts(outputs);
+            e.setBuiltAt(System.currentTimeMillis());
+            buildCache.record(cacheKey, e, installId);
+        }
+
+        if (remoteKey != null && remoteCache.isPush() && !produced.isEmpty()) {
+            List<File> installed = new ArrayList<File>();
+            if (installId != null) {
+                for (int i = 0; i < unit.getWorkDirs().size(); i++) {
+                    installed.addAll(PomOutputs.installed(moduleDir(repoDir, unit.getWorkDirs().get(i)), remoteCache.getLocalRepo()));
+                }
+            }
+            RunMetrics.Timer timer = startPhase(label(unit.getMemberNames()), "remote-put");
+            boolean pushed = remoteCache.push(remoteKey, repoDir, produced, installed);
+            if (timer != null) {
+                timer.detail(remoteCache.describe());
+                if (pushed) {
+                    timer.ok();
+                } else {
+                    timer.skipped();
+                }
             }
         }
+        return true;
+    }
+
+    /**
+     * Unpack the unit's outputs from the remote cache instead of running maven.
+     *
+     * @return false on a miss
+     */
+    private boolean restoreRemote(BuildUnit unit, File repoDir, boolean skipTests, String fingerprint, String remoteKey,
+                                  String cacheKey, String installId) throws Exception {
+        RunMetrics.Timer timer = startPhase(label(unit.getMemberNames()), "remote-get");
+        List<File> restored = remoteCache.restore(remoteKey, repoDir);
+        if (timer != null) {
+            timer.detail(remoteCache.describe());
+            if (restored != null) {
+                timer.ok();
+            } else {
+                timer.skipped();
+            }
+        }
+        if (restored == null) return false;
+
+        System.out.println("[SKIP] mvn " + unit.getGoals() + " restored " + restored.size() + " file(s) from remote cache "
+                + remoteCache.describe() + " (repos=" + unit.describeMembers() + ")");
+        artifactFinder.invalidate(repoDir);
+        recordProduced(unit, repoDir, restored);
+
+        // 记到本地缓存：下次本机直接命中
+        List<String> outputs = new ArrayList<String>();
+        for (int i = 0; i < restored.size(); i++) {
+            outputs.add(restored.get(i).getAbsolutePath());
+        }
+        BuildStateCache.Entry e = new BuildStateCache.Entry();
+        e.setFingerprint(fingerprint);
+        e.setHead(headOf(repoDir));
+        e.setCommandHash(BuildStateCache.sha256(String.join(" ", mavenArguments(unit, skipTests))));
+        e.setArtifacts(outputs);
+        e.setBuiltAt(System.currentTimeMillis());
+        buildCache.record(cacheKey, e, installId);
+        return true;
+    }
+
+    /**
+     * Assign produced files to the unit's members (deepest module dir wins) and to its working copy.
+     */
+    private void recordProduced(BuildUnit unit, File repoDir, List<File> files) {
+        List<List<File>> perMember = new ArrayList<List<File>>();
+        for (int i = 0; i < unit.getMembers().size(); i++) {
+            perMember.add(new ArrayList<File>());
+        }
+        for (int k = 0; k < files.size(); k++) {
+            String path = files.get(k).getAbsolutePath();
+            int owner = -1;
+            int ownerLen = -1;
+            for (int i = 0; i < unit.getWorkDirs().size(); i++) {
+                String dir = moduleDir(repoDir, unit.getWorkDirs().get(i)).getAbsolutePath();
+                if (path.startsWith(dir + File.separator) && dir.length() > ownerLen) {
+                    owner = i;
+                    ownerLen = dir.length();
+                }
+            }
+            // -am 带出来的上游模块也算这个 unit 的产物
+            perMember.get(owner < 0 ? 0 : owner).add(files.get(k));
+        }
+
+        for (int i = 0; i < unit.getMembers().size(); i++) {
+            String name = unit.getMemberNames().get(i);
+            if (name != null) producedByRepo.put(name, perMember.get(i));
+        }
+        Integer g = Integer.valueOf(unit.getGroup().getIndex());
+        synchronized (producedByGroup) {
+            List<File> all = new ArrayList<File>();
+            List<File> prev = producedByGroup.get(g);
+            if (prev != null) all.addAll(prev);
+            for (int k = 0; k < files.size(); k++) {
+                if (!all.contains(files.get(k))) all.add(files.get(k));
+            }
+            producedByGroup.put(g, all);
+        }
+    }
+
+    private static boolean containsFile(List<File> files, File f) {
+        Path p = f.getAbsoluteFile().toPath().normalize();
+        for (int i = 0; i < files.size(); i++) {
+            if (files.get(i).getAbsoluteFile().toPath().normalize().equals(p)) return true;
+        }
+        return false;
+    }
+
+    // 缓存用的 mvn 参数不含启动器：mvnd 中途回退到 mvn 时指纹 / 远程 key 不变
+    private List<String> mavenArguments(BuildUnit unit, boolean skipTests) {
+        return unit.isReactorBatch()
+                ? mvn.reactorArguments(unit.getWorkDirs(), unit.getGoals(), skipTests)
+                : mvn.goalsArguments(unit.getGoals(), skipTests);
+    }
+
+    // install/deploy 会改本地 maven 仓库：按项目（gitUrl + 模块）记录最后一次安装的版本
+    private static String installId(BuildUnit unit) {
+        List<String> goals = unit.getGoals();
+        if (!goals.contains("install") && !goals.contains("deploy")) return null;
+        String project = unit.getGroup().getGitUrl() != null
+                ? unit.getGroup().getGitUrl()
+                : unit.getGroup().getRepoDir().getAbsolutePath();
+        return project + "|" + String.join(",", unit.getWorkDirs());
+    }
+
+    /**
+     * HEAD of a clean working copy, "" when it has local changes (never cached).
+     */
+    private String cacheableHead(File repoDir) {
+        if (dryRun) return "";
+        try {
+            return git.isClean(repoDir) ? git.headCommit(repoDir) : "";
+        } catch (Exception ex) {
+            System.out.println("[WARN] cannot read git state, build cache disabled for " + repoDir.getAbsolutePath() + ": " + ex.getMessage());
+            return "";
+        }
+    }
+
+    private String headOf(File repoDir) {
+        try {
+            return git.headCommit(repoDir);
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    private static File moduleDir(File repoDir, String workDir) {
+        return ".".equals(workDir) ? repoDir : new File(repoDir, workDir);
+    }
+
+    private static String emptyToNull(String s) {
+        return (s == null || s.isEmpty()) ? null : s;
+    }
+
+    private static String shortSha(String sha) {
+        return sha == null ? "?" : sha.substring(0, Math.min(8, sha.length()));
+    }
+
+    private int resolveParallelism(PackagerConfig.JobConfig job) {
+        if (parallelism != null) return parallelism.intValue();
+
+        String s = vars.resolve(job.getParallelism());
+        if (s == null || s.trim().isEmpty()) return 1;
+        return parsePositive(s, "Job parallelism");
+    }
+
+    private static int parsePositive(String s, String what) {
+        try {
+            int n = Integer.parseInt(s.trim());
+            if (n < 1) throw new NumberFormatException();
+            return n;
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(what + " must be a positive number: " + s);
+        }
+    }
+
+    // 控制台前缀 / 日志文件名：[repo] 或 [m1+m2]
+    private static String label(List<String> repoNames) {
+        List<String> parts = new ArrayList<String>();
+        for (int i = 0; i < repoNames.size(); i++) {
+            if (repoNames.get(i) != null) parts.add(repoNames.get(i));
+        }
+        return parts.isEmpty() ? null : String.join("+", parts);
+    }
+
+    private static String syncTaskId(int index) {
+        return "sync#" + index;
+    }
+
+    private static String buildTaskId(int index) {
+        return "build#" + index;
+    }
+
+    private static boolean isGlob(String s) {
+        return s != null && (s.indexOf('*') >= 0 || s.indexOf('?') >= 0 || s.indexOf('{') >= 0 || s.indexOf('[') >= 0);
     }
 
     private static File chooseBestWar(List<File> wars) {
-        // 策略：优先选择最后修改时间最新的 war
+        // 策略：优先选择最后修改时间最新的 war（候选已是本次构建的产物时一般只有一个）
         File best = null;
         long bestTime = -1L;
 
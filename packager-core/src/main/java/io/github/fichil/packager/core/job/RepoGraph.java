@@ -0,0 +1,283 @@
+package io.github.fichil.packager.core.job;
+
+import io.github.fichil.packager.core.config.PackagerConfig;
+import io.github.fichil.packager.core.config.VarResolver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dependency graph between the repos of one job.
+ * - explicit: repo.dependsOn lists repo names that must be built first
+ * - inferred (dependsOn not set): every earlier repo whose goals publish to the local
+ *   repository (install/deploy), i.e. what the config order guaranteed before
+ * - repos sharing one working copy keep their config order when their maven workDirs overlap
+ *   (same dir, or one nested in the other); disjoint modules of a monorepo may build in parallel
+ */
+public final class RepoGraph {
+
+    private RepoGraph() {}
+
+    /**
+     * @return for every repo index, the indexes of the repos it depends on
+     */
+    public static List<List<Integer>> dependencies(List<PackagerConfig.RepoConfig> repos, VarResolver vars) {
+        List<List<Integer>> out = new ArrayList<List<Integer>>();
+        if (repos == null) return out;
+
+        Map<String, Integer> nameToIndex = new HashMap<String, Integer>();
+        List<String> duplicateNames = new ArrayList<String>();
+        String[] paths = resolvedPaths(repos, vars);
+
+        for (int i = 0; i < repos.size(); i++) {
+            PackagerConfig.RepoConfig r = repos.get(i);
+            if (r.getName() != null) {
+                if (nameToIndex.containsKey(r.getName())) {
+                    duplicateNames.add(r.getName());
+                } else {
+                    nameToIndex.put(r.getName(), Integer.valueOf(i));
+                }
+            }
+        }
+
+        for (int i = 0; i < repos.size(); i++) {
+            PackagerConfig.RepoConfig r = repos.get(i);
+            List<Integer> deps = new ArrayList<Integer>();
+
+            if (r.getDependsOn() != null) {
+                for (int k = 0; k < r.getDependsOn().size(); k++) {
+                    String depName = vars.resolve(r.getDependsOn().get(k));
+                    if (duplicateNames.contains(depName)) {
+                        throw new IllegalArgumentException("dependsOn is ambiguous, repo name used more than once: "
+                                + depName + " (repo=" + r.getName() + ")");
+                    }
+                    Integer idx = nameToIndex.get(depName);
+                    if (idx == null) {
+                        throw new IllegalArgumentException("dependsOn references unknown repo: "
+                                + depName + " (repo=" + r.getName() + ")");
+                    }
+                    addOnce(deps, idx);
+                }
+            } else {
+                for (int k = 0; k < i; k++) {
+                    if (publishesToLocalRepo(repos.get(k))) {
+                        addOnce(deps, Integer.valueOf(k));
+                    }
+                }
+            }
+
+            // 同一工作目录下，目录重叠的模块不能并发构建
+            if (paths[i] != null && hasGoals(r)) {
+                for (int k = 0; k < i; k++) {
+                    if (paths[i].equals(paths[k]) && hasGoals(repos.get(k))
+                            && workDirsOverlap(workDir(r, vars), workDir(repos.get(k), vars))) {
+                        addOnce(deps, Integer.valueOf(k));
+                    }
+                }
+            }
+
+            out.add(deps);
+        }
+        return out;
+    }
+
+    /**
+     * Group repo entries by working copy, so every path is synced exactly once per run.
+     * A job checking out two different branches into the same path is a config error.
+     */
+    public static List<SyncGroup> syncGroups(List<PackagerConfig.RepoConfig> repos, VarResolver vars) {
+        List<SyncGroup> groups = new ArrayList<SyncGroup>();
+        if (repos == null) return groups;
+
+        Map<String, SyncGroup> byPath = new LinkedHashMap<String, SyncGroup>();
+        List<String> conflicts = new ArrayList<String>();
+
+        for (int i = 0; i < repos.size(); i++) {
+            PackagerConfig.RepoConfig r = repos.get(i);
+            String name = r.getName();
+            String repoPath = vars.resolve(r.getPath());
+            String branch = vars.resolve(r.getBranch());
+            String gitUrl = vars.resolve(r.getGitUrl());
+            boolean shallow = "true".equalsIgnoreCase(vars.resolve(r.getShallow()));
+
+            if (repoPath == null || repoPath.trim().isEmpty()) {
+                throw new IllegalArgumentException("Repo path is empty (repo=" + name + ")");
+            }
+            if (branch == null || branch.trim().isEmpty()) {
+                throw new IllegalArgumentException("Repo branch is empty (repo=" + name + ")");
+            }
+
+            File repoDir = new File(repoPath);
+            String key = repoDir.getAbsolutePath();
+
+            SyncGroup g = byPath.get(key);
+            if (g == null) {
+                g = new SyncGroup(groups.size(), repoDir, branch, gitUrl, shallow);
+                byPath.put(key, g);
+                groups.add(g);
+            } else {
+                if (!g.getBranch().equals(branch)) {
+                    conflicts.add(key + ": " + g.getMemberNames().get(0) + "=" + g.getBranch() + ", " + name + "=" + branch);
+                }
+                if (gitUrl != null && g.getGitUrl() != null && !g.getGitUrl().equals(gitUrl)) {
+                    System.out.println("[WARN] gitUrl differs for same path, using " + g.getGitUrl()
+                            + " (repo=" + name + ", gitUrl=" + gitUrl + ")");
+                }
+            }
+            g.addMember(i, name);
+        }
+
+        if (!conflicts.isEmpty()) {
+            StringBuilder sb = new StringBuilder("Conflicting branches for the same repo path:");
+            for (int i = 0; i < conflicts.size(); i++) {
+                sb.append(System.lineSeparator()).append("  - ").append(conflicts.get(i));
+            }
+            throw new IllegalArgumentException(sb.toString());
+        }
+
+        for (int g = 0; g < groups.size(); g++) {
+            applyCheckoutScope(groups.get(g), repos, vars);
+        }
+        return groups;
+    }
+
+    /**
+     * Sparse paths (union of the members' maven.workDirs + sparsePaths) and clone filter of a working copy.
+     * A member building the repo root needs the whole tree, sparse is then dropped.
+     */
+    private static void applyCheckoutScope(SyncGroup g, List<PackagerConfig.RepoConfig> repos, VarResolver vars) {
+        boolean sparse = false;
+        boolean needsRoot = false;
+        String filter = null;
+        List<String> paths = new ArrayList<String>();
+
+        for (int m = 0; m < g.getMembers().size(); m++) {
+            PackagerConfig.RepoConfig r = repos.get(g.getMembers().get(m).intValue());
+
+            String f = vars.resolve(r.getCloneFilter());
+            if (filter == null && f != null && !f.trim().isEmpty()) filter = f.trim();
+
+            if ("true".equalsIgnoreCase(vars.resolve(r.getSparse()))) sparse = true;
+            if (r.getSparsePaths() != null) {
+                for (int k = 0; k < r.getSparsePaths().size(); k++) {
+                    String p = normalizeDir(vars.resolve(r.getSparsePaths().get(k)));
+                    if (p.isEmpty()) continue;
+                    sparse = true;
+                    if (!paths.contains(p)) paths.add(p);
+                }
+            }
+            if (hasGoals(r)) {
+                String wd = workDir(r, vars);
+                if (wd.isEmpty()) {
+                    needsRoot = true;
+                } else if (!paths.contains(wd)) {
+                    paths.add(wd);
+                }
+            }
+        }
+
+        g.setCloneFilter(filter);
+        if (!sparse || paths.isEmpty()) return;
+        if (needsRoot) {
+            System.out.println("[WARN] sparse checkout ignored, the repo root is built (repo=" + g.describeMembers() + ")");
+            return;
+        }
+        g.setSparsePaths(paths);
+    }
+
+    /**
+     * Maven invocations of a job, in config order. Entries without goals get no unit.
+     *
+     * @param reactorBatch merge consecutive module entries of one working copy with the same goals
+     *                     into one reactor build (mvn -pl a,b,c -am from the repo root)
+     */
+    public static List<BuildUnit> buildUnits(List<PackagerConfig.RepoConfig> repos, VarResolver vars,
+                                             List<SyncGroup> groups, boolean reactorBatch) {
+        List<BuildUnit> units = new ArrayList<BuildUnit>();
+        if (repos == null) return units;
+
+        BuildUnit last = null;
+        for (int i = 0; i < repos.size(); i++) {
+            PackagerConfig.RepoConfig r = repos.get(i);
+            // bootstrap 这类不跑 maven 的条目不打断批次
+            if (!hasGoals(r)) continue;
+
+            SyncGroup g = groupOf(groups, i);
+            String wd = workDir(r, vars);
+            List<String> goals = r.getMaven().getGoals();
+
+            boolean join = reactorBatch
+                    && last != null
+                    && last.getGroup() == g
+                    && last.getGoals().equals(goals)
+                    && !wd.isEmpty()
+                    && !last.getWorkDirs().contains(".");
+
+            if (!join) {
+                last = new BuildUnit(units.size(), g, goals);
+                units.add(last);
+            }
+            last.addMember(i, r.getName(), wd.isEmpty() ? "." : wd);
+        }
+        return units;
+    }
+
+    static SyncGroup groupOf(List<SyncGroup> groups, int repoIndex) {
+        for (int i = 0; i < groups.size(); i++) {
+            if (groups.get(i).getMembers().contains(Integer.valueOf(repoIndex))) return groups.get(i);
+        }
+        throw new IllegalStateException("Repo not in any sync group: #" + repoIndex);
+    }
+
+    /**
+     * @return absolute working copy path per repo index (null when path is not set)
+     */
+    public static String[] resolvedPaths(List<PackagerConfig.RepoConfig> repos, VarResolver vars) {
+        String[] paths = new String[repos.size()];
+        for (int i = 0; i < repos.size(); i++) {
+            String p = vars.resolve(repos.get(i).getPath());
+            paths[i] = (p == null || p.trim().isEmpty()) ? null : new File(p).getAbsolutePath();
+        }
+        return paths;
+    }
+
+    static boolean publishesToLocalRepo(PackagerConfig.RepoConfig r) {
+        if (r.getMaven() == null || r.getMaven().getGoals() == null) return false;
+        List<String> goals = r.getMaven().getGoals();
+        for (int i = 0; i < goals.size(); i++) {
+            String g = goals.get(i);
+            if ("install".equals(g) || "deploy".equals(g)) return true;
+        }
+        return false;
+    }
+
+    private static boolean hasGoals(PackagerConfig.RepoConfig r) {
+        return r.getMaven() != null && r.getMaven().getGoals() != null && !r.getMaven().getGoals().isEmpty();
+    }
+
+    private static String workDir(PackagerConfig.RepoConfig r, VarResolver vars) {
+        return normalizeDir(r.getMaven() == null ? null : vars.resolve(r.getMaven().getWorkDir()));
+    }
+
+    private static String normalizeDir(String wd) {
+        if (wd == null || wd.trim().isEmpty() || ".".equals(wd.trim())) return "";
+        wd = wd.trim().replace('\\', '/');
+        while (wd.startsWith("./")) wd = wd.substring(2);
+        while (wd.endsWith("/")) wd = wd.substring(0, wd.length() - 1);
+        return wd;
+    }
+
+    // "" 表示仓库根目录，与所有模块重叠
+    private static boolean workDirsOverlap(String a, String b) {
+        if (a.isEmpty() || b.isEmpty() || a.equals(b)) return true;
+        return a.startsWith(b + "/") || b.startsWith(a + "/");
+    }
+
+    private static void addOnce(List<Integer> list, Integer v) {
+        if (!list.contains(v)) list.add(v);
+    }
+}
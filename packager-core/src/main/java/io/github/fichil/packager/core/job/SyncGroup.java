@@ -0,0 +1,65 @@
+package io.github.fichil.packager.core.job;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One working copy of a job: all repo entries sharing the same resolved path (and branch).
+ * The working copy is cloned/checked out/pulled once, every member entry then reuses it.
+ */
+public final class SyncGroup {
+
+    private final int index;
+    private final File repoDir;
+    private final String branch;
+    private final String gitUrl;
+    private final boolean shallow;
+    private final List<Integer> members = new ArrayList<Integer>();
+    private final List<String> memberNames = new ArrayList<String>();
+    private List<String> sparsePaths; // null = full checkout
+    private String cloneFilter;
+
+    SyncGroup(int index, File repoDir, String branch, String gitUrl, boolean shallow) {
+        this.index = index;
+        this.repoDir = repoDir;
+        this.branch = branch;
+        this.gitUrl = gitUrl;
+        this.shallow = shallow;
+    }
+
+    void addMember(int repoIndex, String repoName) {
+        members.add(Integer.valueOf(repoIndex));
+        memberNames.add(repoName);
+    }
+
+    public int getIndex() { return index; }
+
+    public File getRepoDir() { return repoDir; }
+
+    public String getBranch() { return branch; }
+
+    public String getGitUrl() { return gitUrl; }
+
+    public boolean isShallow() { return shallow; }
+
+    /** cone-mode sparse checkout directories, null = full checkout */
+    public List<String> getSparsePaths() { return sparsePaths; }
+
+    void setSparsePaths(List<String> sparsePaths) { this.sparsePaths = sparsePaths; }
+
+    /** partial clone filter (e.g. blob:none), null = full clone */
+    public String getCloneFilter() { return cloneFilter; }
+
+    void setCloneFilter(String cloneFilter) { this.cloneFilter = cloneFilter; }
+
+    /** repo indexes (job.repos order) */
+    public List<Integer> getMembers() { return members; }
+
+    public List<String> getMemberNames() { return memberNames; }
+
+    /** "a" or "a, b, c" for log lines */
+    public String describeMembers() {
+        return String.join(", ", memberNames);
+    }
+}
@@ -0,0 +1,96 @@
+package io.github.fichil.packager.core.job;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per working copy locks shared by jobs running at the same time (--parallel-jobs).
+ * A job locks all of its repo paths before the first git command and keeps them until its artifacts are copied,
+ * so two jobs never checkout different branches into one directory.
+ * Paths are always locked in sorted order, jobs sharing several working copies cannot deadlock.
+ */
+public class WorkingCopyLocks {
+
+    /**
+     * Locks held by one job; {@link #close()} releases them.
+     */
+    public static final class Lease implements AutoCloseable {
+        private final List<ReentrantLock> locks;
+
+        private Lease(List<ReentrantLock> locks) {
+            this.locks = locks;
+        }
+
+        @Override
+        public void close() {
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.get(i).unlock();
+            }
+        }
+    }
+
+    private final Map<String, ReentrantLock> locks = new HashMap<String, ReentrantLock>();
+    private final Map<String, String> owners = new HashMap<String, String>();
+
+    /**
+     * Block until every path is free, then lock them all for {@code owner} (job name, shown to waiting jobs).
+     */
+    public Lease lockAll(Collection<File> paths, String owner) throws InterruptedException {
+        TreeSet<String> keys = new TreeSet<String>();
+        for (File f : paths) {
+            if (f != null) keys.add(key(f));
+        }
+
+        List<ReentrantLock> held = new ArrayList<ReentrantLock>();
+        try {
+            for (String k : keys) {
+                ReentrantLock lock = lockFor(k);
+                if (!lock.tryLock()) {
+                    System.out.println("[WAIT] " + owner + ": working copy in use by " + ownerOf(k) + ": " + k);
+                    lock.lockInterruptibly();
+                }
+                held.add(lock);
+                setOwner(k, owner);
+            }
+        } catch (InterruptedException ex) {
+            new Lease(held).close();
+            throw ex;
+        }
+        return new Lease(Collections.unmodifiableList(held));
+    }
+
+    private synchronized ReentrantLock lockFor(String key) {
+        ReentrantLock lock = locks.get(key);
+        if (lock == null) {
+            lock = new ReentrantLock(true);
+            locks.put(key, lock);
+        }
+        return lock;
+    }
+
+    private synchronized void setOwner(String key, String owner) {
+        owners.put(key, owner);
+    }
+
+    private synchronized String ownerOf(String key) {
+        String o = owners.get(key);
+        return o == null ? "another job" : o;
+    }
+
+    // 同一目录的不同写法（相对路径、..、符号链接）映射到同一把锁
+    private static String key(File f) {
+        try {
+            return f.getCanonicalPath();
+        } catch (IOException ex) {
+            return f.getAbsoluteFile().toPath().normalize().toString();
+        }
+    }
+}
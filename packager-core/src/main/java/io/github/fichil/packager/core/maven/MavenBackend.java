@@ -0,0 +1,107 @@
+package io.github.fichil.packager.core.maven;
+
+import io.github.fichil.packager.core.config.PackagerConfig;
+import io.github.fichil.packager.core.exec.ProcessExecutor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How a maven command line is launched.
+ * - fork (default): a fresh mvn JVM per call
+ * - daemon: mvnd (Maven Daemon); builds reuse warm daemon JVMs with loaded plugins and JIT-compiled code,
+ *   falls back to fork when mvnd cannot be started
+ *
+ * Selected by maven.mode in package.yml.
+ */
+public interface MavenBackend {
+
+    String MODE_FORK = "fork";
+    String MODE_DAEMON = "daemon";
+
+    /**
+     * Executable + fixed leading args; maven goals/options are appended by {@link MavenExecutor}.
+     */
+    List<String> launcher();
+
+    void execute(ProcessExecutor exec, List<String> command, File workDir) throws Exception;
+
+    static MavenBackend of(PackagerConfig.GlobalMaven cfg) {
+        String executable = cfg == null ? null : cfg.getExecutable();
+        String mode = cfg == null ? null : cfg.getMode();
+
+        Fork fork = new Fork(executable);
+        if (mode == null || mode.trim().isEmpty() || MODE_FORK.equalsIgnoreCase(mode.trim())) {
+            return fork;
+        }
+        if (MODE_DAEMON.equalsIgnoreCase(mode.trim())) {
+            return new Daemon(cfg.getDaemonExecutable(), fork);
+        }
+        throw new IllegalArgumentException("Unknown maven.mode: " + mode + " (expected fork|daemon)");
+    }
+
+    class Fork implements MavenBackend {
+        private final String executable;
+
+        public Fork(String executable) {
+            this.executable = (executable == null || executable.trim().isEmpty()) ? "mvn" : executable;
+        }
+
+        @Override
+        public List<String> launcher() {
+            List<String> cmd = new ArrayList<String>();
+            cmd.add(executable);
+            return cmd;
+        }
+
+        @Override
+        public void execute(ProcessExecutor exec, List<String> command, File workDir) throws Exception {
+            exec.run(command, workDir);
+        }
+    }
+
+    class Daemon implements MavenBackend {
+        private final String executable;
+        private final Fork fallback;
+        private volatile boolean unavailable;
+
+        public Daemon(String executable, Fork fallback) {
+            this.executable = (executable == null || executable.trim().isEmpty()) ? "mvnd" : executable;
+            this.fallback = fallback;
+        }
+
+        @Override
+        public List<String> launcher() {
+            return unavailable ? fallback.launcher() : daemonLauncher();
+        }
+
+        private List<String> daemonLauncher() {
+            List<String> cmd = new ArrayList<String>();
+            cmd.add(executable);
+            // -B: 不用 mvnd 的交互式终端界面，输出按行打印，便于日志采集
+            cmd.add("-B");
+            return cmd;
+        }
+
+        @Override
+        public void execute(ProcessExecutor exec, List<String> command, File workDir) throws Exception {
+            if (unavailable || !executable.equals(command.get(0))) {
+                fallback.execute(exec, command, workDir);
+                return;
+            }
+            try {
+                exec.run(command, workDir);
+            } catch (IOException ex) {
+                // mvnd 不存在/无法启动：本次运行改用普通 mvn
+                unavailable = true;
+                System.out.println("[WARN] maven daemon not available (" + ex.getMessage() + "), falling back to fork mode");
+
+                List<String> forked = fallback.launcher();
+                forked.addAll(command.subList(daemonLauncher().size(), command.size()));
+                fallback.execute(exec, forked, workDir);
+            }
+        }
+    }
+}
@@ -9,13 +9,16 @@ import java.util.List;
 public class MavenExecutor {
 
     private final ProcessExecutor exec;
-    private final String mavenExecutable;
+    private final MavenBackend backend;
+    private String threads; // -T, reactor batches only
 
     public MavenExecutor(ProcessExecutor exec, String mavenExecutable) {
+        this(exec, new MavenBackend.Fork(mavenExecutable));
+    }
+
+    public MavenExecutor(ProcessExecutor exec, MavenBackend backend) {
         this.exec = exec;
-        this.mavenExecutable = (mavenExecutable == null || mavenExecutable.trim().isEmpty())
-                ? "mvn"
-                : mavenExecutable;
+        this.backend = backend;
     }
 
     public void runGoals(File workDir, List<String> goals, boolean skipTests) throws Exception {
@@ -23,13 +26,70 @@ public class MavenExecutor {
             return;
         }
 
-        List<String> cmd = new ArrayList<String>();
-        cmd.add(this.mavenExecutable);
-        cmd.addAll(goals);
+        backend.execute(exec, goalsCommand(goals, skipTests), workDir);
+    }
+
+    /**
+     * Effective command line of {@link #runGoals}.
+     */
+    public List<String> goalsCommand(List<String> goals, boolean skipTests) {
+        List<String> cmd = new ArrayList<String>(backend.launcher());
+        cmd.addAll(goalsArguments(goals, skipTests));
+        return cmd;
+    }
+
+    /**
+     * {@link #goalsCommand} without the launcher (mvn path / mvnd): the same on every machine and whichever
+     * backend ends up running it, used for cache keys.
+     */
+    public List<String> goalsArguments(List<String> goals, boolean skipTests) {
+        List<String> args = new ArrayList<String>(goals);
         if (skipTests) {
-            cmd.add("-DskipTests");
+            args.add("-DskipTests");
         }
-        exec.run(cmd, workDir);
+        return args;
     }
-}
 
+    /**
+     * One reactor invocation for several modules of the same repo:
+     * mvn goals -pl a,b,c -am [-T threads] (run from the repo root).
+     */
+    public void runReactor(File rootDir, List<String> modules, List<String> goals, boolean skipTests) throws Exception {
+        if (goals == null || goals.isEmpty() || modules == null || modules.isEmpty()) {
+            return;
+        }
+
+        backend.execute(exec, reactorCommand(modules, goals, skipTests), rootDir);
+    }
+
+    /**
+     * Effective command line of {@link #runReactor}.
+     */
+    public List<String> reactorCommand(List<String> modules, List<String> goals, boolean skipTests) {
+        List<String> cmd = new ArrayList<String>(backend.launcher());
+        cmd.addAll(reactorArguments(modules, goals, skipTests));
+        return cmd;
+    }
+
+    /**
+     * {@link #reactorCommand} without the launcher, see {@link #goalsArguments}.
+     */
+    public List<String> reactorArguments(List<String> modules, List<String> goals, boolean skipTests) {
+        List<String> args = new ArrayList<String>(goals);
+        args.add("-pl");
+        args.add(String.join(",", modules));
+        args.add("-am");
+        if (threads != null && !threads.trim().isEmpty()) {
+            args.add("-T");
+            args.add(threads.trim());
+        }
+        if (skipTests) {
+            args.add("-DskipTests");
+        }
+        return args;
+    }
+
+    public void setThreads(String threads) {
+        this.threads = threads;
+    }
+}
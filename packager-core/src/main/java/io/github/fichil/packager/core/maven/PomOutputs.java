@@ -0,0 +1,270 @@
+package io.github.fichil.packager.core.maven;
+
+import io.github.fichil.packager.core.artifact.ArtifactFinder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Main artifact a maven module builds: {@code <build.directory>/<build.finalName>.<packaging>} read from its
+ * pom.xml (properties, project.* and the parent pom are resolved; aggregator poms expand to their modules).
+ * When the pom can't tell (custom plugins, unresolved expressions, file not written by this build) the
+ * module's target/ is scanned for files written since the build started instead.
+ */
+public final class PomOutputs {
+
+    private static final Pattern EXPR = Pattern.compile("\\$\\{([^}]+)}");
+    private static final int MAX_MODULE_DEPTH = 8;
+
+    private PomOutputs() {
+    }
+
+    /**
+     * Artifacts the module (and, for an aggregator, its modules) produced since {@code sinceMillis}.
+     */
+    public static List<File> produced(File moduleDir, long sinceMillis) {
+        List<File> result = new ArrayList<File>();
+        collect(moduleDir, sinceMillis, result, 0);
+        return result;
+    }
+
+    private static void collect(File moduleDir, long since, List<File> result, int depth) {
+        File pomFile = new File(moduleDir, "pom.xml");
+        Pom pom = pomFile.isFile() ? Pom.read(pomFile) : null;
+        if (pom == null) {
+            addAll(result, ArtifactFinder.findBuildOutputs(moduleDir, since));
+            return;
+        }
+
+        if ("pom".equals(pom.packaging)) {
+            if (depth >= MAX_MODULE_DEPTH) return;
+            for (int i = 0; i < pom.modules.size(); i++) {
+                collect(new File(moduleDir, pom.modules.get(i)), since, result, depth + 1);
+            }
+            return;
+        }
+
+        File main = pom.mainArtifact(moduleDir);
+        // 文件系统时间戳精度有限，留 2 秒余量
+        if (main != null && main.isFile() && main.lastModified() >= since - 2000L) {
+            if (!result.contains(main)) result.add(main);
+            return;
+        }
+        // pom 推不出来（插件改了文件名等）：只扫本模块的 target/
+        addAll(result, ArtifactFinder.findBuildOutputs(moduleDir, since));
+    }
+
+    /**
+     * Files {@code mvn install} put into the local repository for the module (and, for an aggregator, the
+     * aggregator pom and its modules): {@code <group>/<artifactId>/<version>/<artifactId>-<version>*}.
+     */
+    public static List<File> installed(File moduleDir, File localRepo) {
+        List<File> result = new ArrayList<File>();
+        collectInstalled(moduleDir, localRepo, result, 0);
+        return result;
+    }
+
+    private static void collectInstalled(File moduleDir, File localRepo, List<File> result, int depth) {
+        File pomFile = new File(moduleDir, "pom.xml");
+        Pom pom = pomFile.isFile() ? Pom.read(pomFile) : null;
+        if (pom == null) return;
+
+        String groupId = pom.interpolate(pom.groupId);
+        String version = pom.interpolate(pom.version);
+        if (groupId != null && version != null && pom.artifactId != null) {
+            File dir = new File(new File(new File(localRepo, groupId.replace('.', File.separatorChar)), pom.artifactId), version);
+            File[] files = dir.listFiles();
+            if (files != null) {
+                String prefix = pom.artifactId + "-" + version;
+                for (int i = 0; i < files.length; i++) {
+                    // maven-metadata-local.xml / _remote.repositories 是本机的记录，不算产物
+                    if (files[i].isFile() && files[i].getName().startsWith(prefix)) result.add(files[i]);
+                }
+            }
+        }
+        if ("pom".equals(pom.packaging) && depth < MAX_MODULE_DEPTH) {
+            for (int i = 0; i < pom.modules.size(); i++) {
+                collectInstalled(new File(moduleDir, pom.modules.get(i)), localRepo, result, depth + 1);
+            }
+        }
+    }
+
+    private static void addAll(List<File> result, List<File> files) {
+        for (int i = 0; i < files.size(); i++) {
+            if (!result.contains(files.get(i))) result.add(files.get(i));
+        }
+    }
+
+    /**
+     * The parts of a pom.xml needed to name its artifact.
+     */
+    static final class Pom {
+        String groupId;
+        String artifactId;
+        String version;
+        String packaging = "jar";
+        String finalName;
+        String directory;
+        final List<String> modules = new ArrayList<String>();
+        final Map<String, String> properties = new HashMap<String, String>();
+
+        static Pom read(File pomFile) {
+            try {
+                return read(pomFile, 0);
+            } catch (Exception ex) {
+                System.out.println("[WARN] cannot read " + pomFile.getAbsolutePath() + ": " + ex.getMessage());
+                return null;
+            }
+        }
+
+        private static Pom read(File pomFile, int depth) throws Exception {
+            Element project = parse(pomFile).getDocumentElement();
+            Pom pom = new Pom();
+
+            // parent 先读，子 pom 的属性覆盖它
+            Element parent = child(project, "parent");
+            if (parent != null && depth < MAX_MODULE_DEPTH) {
+                String rel = text(child(parent, "relativePath"));
+                File parentPom = new File(pomFile.getParentFile(), rel == null ? "../pom.xml" : rel);
+                if (parentPom.isDirectory()) parentPom = new File(parentPom, "pom.xml");
+                if (parentPom.isFile()) {
+                    Pom p = read(parentPom, depth + 1);
+                    if (p.artifactId != null && p.artifactId.equals(text(child(parent, "artifactId")))) {
+                        pom.properties.putAll(p.properties);
+                        pom.directory = p.directory;
+                    }
+                }
+                pom.version = text(child(parent, "version"));
+                pom.groupId = text(child(parent, "groupId"));
+            }
+
+            Element props = child(project, "properties");
+            if (props != null) {
+                NodeList nl = props.getChildNodes();
+                for (int i = 0; i < nl.getLength(); i++) {
+                    if (nl.item(i) instanceof Element) {
+                        pom.properties.put(nl.item(i).getNodeName(), nl.item(i).getTextContent().trim());
+                    }
+                }
+            }
+
+            pom.artifactId = text(child(project, "artifactId"));
+            if (text(child(project, "groupId")) != null) pom.groupId = text(child(project, "groupId"));
+            if (text(child(project, "version")) != null) pom.version = text(child(project, "version"));
+            if (text(child(project, "packaging")) != null) pom.packaging = text(child(project, "packaging"));
+
+            Element build = child(project, "build");
+            if (build != null) {
+                if (text(child(build, "finalName")) != null) pom.finalName = text(child(build, "finalName"));
+                if (text(child(build, "directory")) != null) pom.directory = text(child(build, "directory"));
+            }
+
+            Element modules = child(project, "modules");
+            if (modules != null) {
+                NodeList nl = modules.getElementsByTagName("module");
+                for (int i = 0; i < nl.getLength(); i++) {
+                    pom.modules.add(nl.item(i).getTextContent().trim());
+                }
+            }
+
+            pom.properties.put("project.artifactId", pom.artifactId);
+            pom.properties.put("artifactId", pom.artifactId);
+            if (pom.version != null) {
+                pom.properties.put("project.version", pom.version);
+                pom.properties.put("version", pom.version);
+            }
+            if (pom.groupId != null) pom.properties.put("project.groupId", pom.groupId);
+            return pom;
+        }
+
+        /**
+         * @return the main artifact file, null when it can't be resolved
+         */
+        File mainArtifact(File moduleDir) {
+            String ext = extension(packaging);
+            if (ext == null || artifactId == null) return null;
+
+            String name = finalName != null ? finalName : artifactId + (version == null ? "" : "-" + version);
+            name = interpolate(name);
+            String dir = directory == null ? "target" : interpolate(directory);
+            if (name == null || dir == null) return null;
+
+            dir = dir.replace("${project.basedir}", moduleDir.getAbsolutePath()).replace("${basedir}", moduleDir.getAbsolutePath());
+            File d = new File(dir);
+            if (!d.isAbsolute()) d = new File(moduleDir, dir);
+            return new File(d, name + ext);
+        }
+
+        // 未能解析的 ${...} 返回 null
+        String interpolate(String s) {
+            if (s == null) return null;
+            String cur = s;
+            for (int round = 0; round < 10 && cur.indexOf("${") >= 0; round++) {
+                Matcher m = EXPR.matcher(cur);
+                StringBuffer sb = new StringBuffer();
+                boolean changed = false;
+                while (m.find()) {
+                    String key = m.group(1);
+                    if (key.equals("project.basedir") || key.equals("basedir")) {
+                        m.appendReplacement(sb, Matcher.quoteReplacement(m.group()));
+                        continue;
+                    }
+                    String v = properties.get(key);
+                    if (v == null) return null;
+                    m.appendReplacement(sb, Matcher.quoteReplacement(v));
+                    changed = true;
+                }
+                m.appendTail(sb);
+                cur = sb.toString();
+                if (!changed) break;
+            }
+            String rest = cur.replace("${project.basedir}", "").replace("${basedir}", "");
+            return rest.indexOf("${") >= 0 ? null : cur;
+        }
+
+        private static String extension(String packaging) {
+            if ("war".equals(packaging)) return ".war";
+            if ("ear".equals(packaging)) return ".ear";
+            if ("jar".equals(packaging) || "bundle".equals(packaging) || "ejb".equals(packaging)
+                    || "maven-plugin".equals(packaging)) return ".jar";
+            return null;
+        }
+
+        private static Document parse(File f) throws Exception {
+            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+            dbf.setNamespaceAware(false);
+            dbf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            dbf.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            DocumentBuilder db = dbf.newDocumentBuilder();
+            return db.parse(f);
+        }
+
+        private static Element child(Element parent, String name) {
+            if (parent == null) return null;
+            NodeList nl = parent.getChildNodes();
+            for (int i = 0; i < nl.getLength(); i++) {
+                Node n = nl.item(i);
+                if (n instanceof Element && name.equals(n.getNodeName())) return (Element) n;
+            }
+            return null;
+        }
+
+        private static String text(Element e) {
+            if (e == null) return null;
+            String t = e.getTextContent().trim();
+            return t.isEmpty() ? null : t;
+        }
+    }
+}
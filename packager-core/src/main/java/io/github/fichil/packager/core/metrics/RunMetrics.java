@@ -0,0 +1,219 @@
+package io.github.fichil.packager.core.metrics;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timing of one packaging run (thread-safe).
+ * - phase steps (recorded by JobRunner): job, sync, build, artifacts
+ * - process steps (recorded by ProcessExecutor): git clone/fetch/checkout/pull, mvn ... with exit code + CPU time
+ * - copy steps (recorded by ArtifactCopier): bytes written
+ *
+ * Written as JSON after the run ({@link #writeJson}) plus a console summary ({@link #printSummary}).
+ */
+public class RunMetrics {
+
+    public static final String KIND_PHASE = "phase";
+    public static final String KIND_PROCESS = "process";
+    public static final String KIND_COPY = "copy";
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Step {
+        private String job;
+        private String repo;
+        private String kind;
+        private String step;
+        private String detail;
+        private String status;
+        private long startedAt;
+        private long wallMillis;
+        private Integer exitCode;
+        private Long cpuMillis;
+        private Long bytes;
+
+        public String getJob() { return job; }
+        public void setJob(String job) { this.job = job; }
+
+        public String getRepo() { return repo; }
+        public void setRepo(String repo) { this.repo = repo; }
+
+        public String getKind() { return kind; }
+        public void setKind(String kind) { this.kind = kind; }
+
+        public String getStep() { return step; }
+        public void setStep(String step) { this.step = step; }
+
+        /** command line / file path */
+        public String getDetail() { return detail; }
+        public void setDetail(String detail) { this.detail = detail; }
+
+        /** ok | failed | skipped */
+        public String getStatus() { return status; }
+        public void setStatus(String status) { this.status = status; }
+
+        public long getStartedAt() { return startedAt; }
+        public void setStartedAt(long startedAt) { this.startedAt = startedAt; }
+
+        public long getWallMillis() { return wallMillis; }
+        public void setWallMillis(long wallMillis) { this.wallMillis = wallMillis; }
+
+        public Integer getExitCode() { return exitCode; }
+        public void setExitCode(Integer exitCode) { this.exitCode = exitCode; }
+
+        public Long getCpuMillis() { return cpuMillis; }
+        public void setCpuMillis(Long cpuMillis) { this.cpuMillis = cpuMillis; }
+
+        public Long getBytes() { return bytes; }
+        public void setBytes(Long bytes) { this.bytes = bytes; }
+    }
+
+    /**
+     * Running step; {@link #ok()}, {@link #failed()} or {@link #skipped()} records it.
+     */
+    public final class Timer {
+        private final Step step;
+        private final long t0 = System.nanoTime();
+
+        private Timer(Step step) {
+            this.step = step;
+        }
+
+        public Timer detail(String detail) {
+            step.setDetail(detail);
+            return this;
+        }
+
+        public Timer exitCode(int exitCode) {
+            step.setExitCode(Integer.valueOf(exitCode));
+            return this;
+        }
+
+        public Timer cpuMillis(long cpuMillis) {
+            step.setCpuMillis(cpuMillis < 0 ? null : Long.valueOf(cpuMillis));
+            return this;
+        }
+
+        public Timer bytes(long bytes) {
+            step.setBytes(Long.valueOf(bytes));
+            return this;
+        }
+
+        public Step ok() {
+            return finish("ok");
+        }
+
+        public Step failed() {
+            return finish("failed");
+        }
+
+        public Step skipped() {
+            return finish("skipped");
+        }
+
+        private Step finish(String status) {
+            step.setStatus(status);
+            step.setWallMillis((System.nanoTime() - t0) / 1000000L);
+            add(step);
+            return step;
+        }
+    }
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final long startedAt = System.currentTimeMillis();
+    private final List<Step> steps = new ArrayList<Step>();
+
+    public Timer start(String job, String repo, String kind, String step) {
+        Step s = new Step();
+        s.setJob(job);
+        s.setRepo(repo);
+        s.setKind(kind);
+        s.setStep(step);
+        s.setStartedAt(System.currentTimeMillis());
+        return new Timer(s);
+    }
+
+    public synchronized void add(Step step) {
+        steps.add(step);
+    }
+
+    public synchronized List<Step> getSteps() {
+        return new ArrayList<Step>(steps);
+    }
+
+    public void writeJson(File file) throws Exception {
+        Map<String, Object> report = new LinkedHashMap<String, Object>();
+        report.put("startedAt", Long.valueOf(startedAt));
+        report.put("finishedAt", Long.valueOf(System.currentTimeMillis()));
+        report.put("steps", getSteps());
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null) Files.createDirectories(dir.toPath());
+        JSON.writerWithDefaultPrettyPrinter().writeValue(file, report);
+    }
+
+    /**
+     * Phase steps per job/repo, then the slowest processes.
+     */
+    public void printSummary(PrintStream out) {
+        List<Step> all = getSteps();
+
+        out.println("==================================================");
+        out.println("RUN SUMMARY (" + formatSeconds(System.currentTimeMillis() - startedAt) + "s)");
+        out.println("==================================================");
+        out.println(String.format("%-28s %-32s %-10s %-8s %9s %12s", "JOB", "REPO", "STEP", "STATUS", "WALL(s)", "BYTES"));
+        for (int i = 0; i < all.size(); i++) {
+            Step s = all.get(i);
+            if (!KIND_PHASE.equals(s.getKind())) continue;
+
+            Long bytes = s.getBytes();
+            out.println(String.format("%-28s %-32s %-10s %-8s %9s %12s",
+                    clip(s.getJob(), 28), clip(s.getRepo() == null ? "-" : s.getRepo(), 32), s.getStep(), s.getStatus(),
+                    formatSeconds(s.getWallMillis()), bytes == null ? "" : String.valueOf(bytes)));
+        }
+
+        List<Step> processes = new ArrayList<Step>();
+        for (int i = 0; i < all.size(); i++) {
+            if (KIND_PROCESS.equals(all.get(i).getKind())) processes.add(all.get(i));
+        }
+        if (processes.isEmpty()) return;
+
+        Collections.sort(processes, new Comparator<Step>() {
+            @Override
+            public int compare(Step a, Step b) {
+                return Long.compare(b.getWallMillis(), a.getWallMillis());
+            }
+        });
+
+        out.println("--------------------------------------------------");
+        out.println("Slowest processes:");
+        out.println(String.format("%-32s %-14s %5s %9s %9s", "REPO", "STEP", "EXIT", "WALL(s)", "CPU(s)"));
+        for (int i = 0; i < processes.size() && i < 10; i++) {
+            Step s = processes.get(i);
+            out.println(String.format("%-32s %-14s %5s %9s %9s",
+                    clip(s.getRepo() == null ? "-" : s.getRepo(), 32), clip(s.getStep(), 14),
+                    s.getExitCode() == null ? "-" : String.valueOf(s.getExitCode()),
+                    formatSeconds(s.getWallMillis()),
+                    s.getCpuMillis() == null ? "-" : formatSeconds(s.getCpuMillis().longValue())));
+        }
+    }
+
+    private static String formatSeconds(long millis) {
+        return String.format("%.1f", millis / 1000.0);
+    }
+
+    private static String clip(String s, int max) {
+        if (s == null) return "";
+        return s.length() <= max ? s : s.substring(0, max - 1) + "~";
+    }
+}